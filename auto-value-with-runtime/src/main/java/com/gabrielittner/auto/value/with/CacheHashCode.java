@@ -0,0 +1,17 @@
+package com.gabrielittner.auto.value.with;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * The generated subclass of the annotated AutoValue class computes {@code hashCode()} once and
+ * caches it for later calls. Like {@link String#hashCode()} the cache is not synchronized, threads
+ * that race for the first call compute the same value.
+ */
+@Retention(CLASS)
+@Target(TYPE)
+public @interface CacheHashCode {
+}
@@ -0,0 +1,22 @@
+package com.gabrielittner.auto.value.with;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Instances returned by generated with-ers of the annotated AutoValue class are canonicalized
+ * through a {@link WithInterner}, so that equal results share a single instance. The interner is
+ * available as {@code AutoValue_Name.INTERNER}.
+ */
+@Retention(CLASS)
+@Target(TYPE)
+public @interface Interned {
+
+    /**
+     * The maximum number of instances that are kept, least recently used ones are evicted first.
+     */
+    int maximumSize() default 1024;
+}
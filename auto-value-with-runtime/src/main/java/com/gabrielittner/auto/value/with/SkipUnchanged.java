@@ -0,0 +1,21 @@
+package com.gabrielittner.auto.value.with;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Generated with-ers of the annotated AutoValue class return {@code this} instead of a new
+ * instance when none of the passed values differ from the current ones.
+ */
+@Retention(CLASS)
+@Target(TYPE)
+public @interface SkipUnchanged {
+
+    /**
+     * Whether non-primitive values are compared with {@code equals} instead of {@code ==}.
+     */
+    boolean useEquals() default false;
+}
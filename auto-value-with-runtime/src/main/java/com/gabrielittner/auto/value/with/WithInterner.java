@@ -0,0 +1,161 @@
+package com.gabrielittner.auto.value.with;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canonicalizes instances of an AutoValue class annotated with {@link Interned}: {@link #intern}
+ * returns a previously interned equal instance if there is one. Instances are only weakly
+ * referenced and every stripe evicts its least recently used instances once it holds more than its
+ * share of the maximum size. Stripes are locked independently of each other.
+ */
+public final class WithInterner<T> {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe<T>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public WithInterner(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize <= 0: " + maximumSize);
+        }
+        int stripeSize = (maximumSize + STRIPES - 1) / STRIPES;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>(stripeSize);
+        }
+    }
+
+    /**
+     * Returns an interned instance that is equal to {@code instance}, which is {@code instance}
+     * itself if there is none.
+     */
+    public T intern(T instance) {
+        int hash = instance.hashCode();
+        // spread the higher bits, AutoValue hash codes are multiplied by 1000003
+        int index = (hash ^ (hash >>> 16)) & (STRIPES - 1);
+        return stripes[index].intern(instance, hash);
+    }
+
+    /** Returns how often {@link #intern} returned a previously interned instance. */
+    public long hitCount() {
+        long hits = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    /** Returns how often {@link #intern} returned the passed instance. */
+    public long missCount() {
+        long misses = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    /** Returns the number of interned instances including ones that were garbage collected. */
+    public int size() {
+        int size = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Stripe<T> {
+
+        final ReferenceQueue<T> queue = new ReferenceQueue<>();
+        final Map<Object, Entry<T>> entries;
+        long hits;
+        long misses;
+
+        Stripe(final int maximumSize) {
+            entries = new LinkedHashMap<Object, Entry<T>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Entry<T>> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+
+        synchronized T intern(T instance, int hash) {
+            for (Reference<? extends T> cleared; (cleared = queue.poll()) != null; ) {
+                entries.remove(cleared);
+            }
+            Entry<T> entry = entries.get(new Lookup(instance, hash));
+            if (entry != null) {
+                T interned = entry.get();
+                if (interned != null) {
+                    hits++;
+                    return interned;
+                }
+            }
+            misses++;
+            entry = new Entry<>(instance, hash, queue);
+            entries.put(entry, entry);
+            return instance;
+        }
+    }
+
+    /** A weakly referenced instance that is equal to entries with an equal instance. */
+    private static final class Entry<T> extends WeakReference<T> {
+
+        private final int hash;
+
+        Entry(T instance, int hash, ReferenceQueue<T> queue) {
+            super(instance, queue);
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Object instance = get();
+            return instance != null && instance.equals(((Entry<?>) o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** Looks up the entry of an instance without creating a reference to it. */
+    private static final class Lookup {
+
+        private final Object instance;
+        private final int hash;
+
+        Lookup(Object instance, int hash) {
+            this.instance = instance;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && instance.equals(((Entry<?>) o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
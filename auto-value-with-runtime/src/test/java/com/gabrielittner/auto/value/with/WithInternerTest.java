@@ -0,0 +1,42 @@
+package com.gabrielittner.auto.value.with;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public final class WithInternerTest {
+
+    @Test
+    public void returnsInternedInstance() {
+        WithInterner<String> interner = new WithInterner<>(16);
+        String first = new String("value");
+        String second = new String("value");
+
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(second));
+        assertEquals(1, interner.hitCount());
+        assertEquals(1, interner.missCount());
+        assertEquals(1, interner.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // a single instance per stripe, values outside of Integer's cache are distinct instances
+        WithInterner<Integer> interner = new WithInterner<>(16);
+        Integer first = Integer.valueOf(1000);
+        Integer sameStripe = Integer.valueOf(1000 + 16);
+        interner.intern(first);
+        interner.intern(sameStripe);
+
+        Integer equal = Integer.valueOf(1000);
+        assertSame(equal, interner.intern(equal));
+        assertEquals(0, interner.hitCount());
+        assertEquals(3, interner.missCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMaximumSize() {
+        new WithInterner<String>(0);
+    }
+}
@@ -1,33 +1,77 @@
 package com.gabrielittner.auto.value.with;
 
 import com.gabrielittner.auto.value.util.Property;
+import com.gabrielittner.auto.value.with.CollectionMethod.CollectionType;
+import com.gabrielittner.auto.value.with.LensMethod.Step;
+import com.gabrielittner.auto.value.with.Options.Comparison;
+import com.google.auto.common.MoreElements;
 import com.google.auto.service.AutoService;
 import com.google.auto.value.extension.AutoValueExtension;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
 import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
 
 import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassTypeName;
-import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
 import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
 import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.element.Modifier.TRANSIENT;
 
 @AutoService(AutoValueExtension.class)
 public class AutoValueWithExtension extends AutoValueExtension {
 
+    private static final String INTERNER = "INTERNER";
+    private static final String MEMOIZED = "com.google.auto.value.extension.memoized.Memoized";
+    private static final AnnotationSpec OVERRIDE = AnnotationSpec.builder(Override.class).build();
+
+    private ProcessingEnvironment processingEnvironment;
+    private Timings timings;
+    private Report report;
+    @VisibleForTesting final Map<TypeElement, ClassAnalysis> analyses = new HashMap<>();
+
     @Override
     public boolean applicable(Context context) {
-        return WithMethod.filteredAbstractMethods(context).size() > 0;
+        long start = timings(context).start();
+        ClassAnalysis analysis = analysis(context);
+        // a class without with-ers still gets the cached hashCode()
+        boolean applicable = analysis.methods.size() > 0 || analysis.transientClass != null
+                || analysis.options.cacheHashCode;
+        if (!applicable) {
+            // no other callback follows, without rounds the analysis would never be removed
+            analyses.remove(context.autoValueClass());
+        }
+        timings.analysis(start);
+        return applicable;
     }
 
     @Override
@@ -35,74 +79,746 @@ public class AutoValueWithExtension extends AutoValueExtension {
         return IncrementalExtensionType.ISOLATING;
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Options.SUPPORTED;
+    }
+
+    @Override
+    public Set<String> consumeProperties(Context context) {
+        TransientClass transientClass = analysis(context).transientClass;
+        return transientClass != null
+                ? Collections.singleton(transientClass.propertyName)
+                : Collections.<String>emptySet();
+    }
+
     @Override
     public Set<ExecutableElement> consumeMethods(Context context) {
-        return WithMethod.filteredAbstractMethods(context);
+        long start = timings(context).start();
+        Set<ExecutableElement> methods = analysis(context).methods;
+        timings.analysis(start);
+        return methods;
     }
 
     @Override
     public String generateClass(
             Context context, String className, String classToExtend, boolean isFinal) {
-        TypeSpec subclass =
-                newTypeSpecBuilder(context, className, classToExtend, isFinal)
-                        .addMethods(generateWithMethods(context))
-                        .build();
+        long start = timings(context).start();
+        // generateClass is the last callback for a class
+        ClassAnalysis analysis = analysis(context);
+        analyses.remove(context.autoValueClass());
+        List<WithMethod> withMethods = analysis.withMethods(context);
+        List<LensMethod> lensMethods = analysis.lensMethods(context);
+        List<CollectionMethod> collectionMethods = analysis.collectionMethods(context);
+        List<DeltaMethod> deltaMethods = analysis.deltaMethods(context);
+        List<UpdateMethod> updateMethods = analysis.updateMethods(context);
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        ConstructorCall constructorCall = new ConstructorCall(context, properties);
+        timings.analysis(start);
 
-        return JavaFile.builder(context.packageName(), subclass).build().toString();
+        start = timings.start();
+        Options options = analysis.options;
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        // with-ers would refer to a missing interner, the error is reported by canIntern
+        if (options.internedMaximumSize == null || canIntern(context, options)) {
+            subclass.addMethods(generateWithMethods(
+                            context, withMethods, constructorCall, options))
+                    .addMethods(generateLensMethods(
+                            context, lensMethods, constructorCall, options))
+                    .addMethods(generateCollectionMethods(
+                            context, collectionMethods, constructorCall, options))
+                    .addMethods(generateUpdateMethods(
+                            context, updateMethods, constructorCall, options))
+                    .addMethods(generateDeltaMethods(
+                            context, deltaMethods, properties, constructorCall, options));
+            if (options.cacheHashCode && canCacheHashCode(context)) {
+                addCachedHashCode(subclass);
+            }
+            if (options.internedMaximumSize != null) {
+                addInterner(context, subclass, options.internedMaximumSize);
+            }
+            if (analysis.transientClass != null) {
+                addTransient(context, className, subclass, analysis.transientClass, properties,
+                        constructorCall, options);
+            }
+        }
+
+        String source = toSource(context, subclass.build(),
+                withMethods.size() + lensMethods.size() + collectionMethods.size()
+                        + updateMethods.size() + deltaMethods.size(),
+                constructorCall.propertyCount());
+        timings.generation(context.autoValueClass(), start);
+        report.add(context.autoValueClass(), constructorCall.propertyCount(),
+                withMethods, lensMethods, collectionMethods, updateMethods);
+        return source;
     }
 
-    private List<MethodSpec> generateWithMethods(Context context) {
-        List<WithMethod> withMethods = WithMethod.getWithMethods(context);
-        ImmutableList<Property> properties = Property.buildProperties(context);
+    private Timings timings(Context context) {
+        ProcessingEnvironment processingEnvironment = context.processingEnvironment();
+        if (this.processingEnvironment != processingEnvironment) {
+            this.processingEnvironment = processingEnvironment;
+            timings = Timings.create(processingEnvironment);
+            report = Report.create(processingEnvironment);
+            Options.check(processingEnvironment);
+            analyses.clear();
+            // classes can be deferred to a later round, their elements must be analyzed again then
+            Rounds.onRoundFinished(processingEnvironment, new Runnable() {
+                @Override
+                public void run() {
+                    analyses.clear();
+                }
+            });
+        }
+        return timings;
+    }
+
+    private ClassAnalysis analysis(Context context) {
+        TypeElement autoValueClass = context.autoValueClass();
+        ClassAnalysis analysis = analyses.get(autoValueClass);
+        if (analysis == null || !analysis.isFor(context)) {
+            analysis = ClassAnalysis.create(context);
+            analyses.put(autoValueClass, analysis);
+        }
+        return analysis;
+    }
+
+    private List<MethodSpec> generateWithMethods(Context context, List<WithMethod> withMethods,
+            ConstructorCall constructorCall, Options options) {
         List<MethodSpec> generatedMethods = new ArrayList<>(withMethods.size());
         for (WithMethod withMethod : withMethods) {
-            generatedMethods.add(generateWithMethod(withMethod, context, properties));
+            generatedMethods.add(
+                    generateWithMethod(withMethod, context, constructorCall, options));
+        }
+        return generatedMethods;
+    }
+
+    private MethodSpec generateWithMethod(WithMethod withMethod, Context context,
+            ConstructorCall constructorCall, Options options) {
+        Object[] arguments = constructorCall.currentArguments();
+        List<ParameterSpec> parameters = new ArrayList<>(withMethod.properties.size());
+        for (int i = 0; i < withMethod.properties.size(); i++) {
+            Property property = withMethod.properties.get(i);
+            String name = property.humanName();
+            arguments[constructorCall.indexOf(name)] = withMethod.isPrimitiveSpecialized(i)
+                    ? Boxing.wrap(property.type(), name)
+                    : name;
+            parameters.add(ParameterSpec.builder(withMethod.parameterTypes.get(i), name).build());
+        }
+
+        MethodSpec.Builder method = newMethodBuilder(context, withMethod.methodName,
+                        withMethod.methodModifiers, withMethod.methodAnnotations)
+                .addParameters(parameters);
+        if (withMethod.typeChange != null) {
+            // this can't be returned as the type arguments differ
+            method.addTypeVariables(withMethod.typeChange.typeVariables)
+                    .returns(withMethod.typeChange.returnType);
+        } else {
+            method.addCode(generateUnchangedCheck(withMethod, options.skipUnchanged));
+        }
+        return method.addCode(returnNewInstance(constructorCall, options, arguments))
+                .build();
+    }
+
+    private List<MethodSpec> generateLensMethods(Context context, List<LensMethod> lensMethods,
+            ConstructorCall constructorCall, Options options) {
+        List<MethodSpec> generatedMethods = new ArrayList<>(lensMethods.size());
+        for (LensMethod lensMethod : lensMethods) {
+            generatedMethods.add(
+                    generateLensMethod(lensMethod, context, constructorCall, options));
+        }
+        return generatedMethods;
+    }
+
+    /**
+     * Reads every object on the path once, returns {@code this} if the leaf is unchanged and
+     * otherwise rebuilds the path from the leaf up using the with-ers of the nested classes.
+     */
+    private MethodSpec generateLensMethod(LensMethod lensMethod, Context context,
+            ConstructorCall constructorCall, Options options) {
+        List<Step> path = lensMethod.path;
+        Step leaf = path.get(path.size() - 1);
+
+        NameAllocator names = new NameAllocator();
+        String parameter = names.newName(lensMethod.parameterName);
+        CodeBlock.Builder code = CodeBlock.builder();
+        String[] locals = new String[path.size() - 1];
+        for (int i = 0; i < locals.length; i++) {
+            Step step = path.get(i);
+            locals[i] = names.newName(step.property.humanName());
+            if (i == 0) {
+                code.addStatement("$T $N = $N()",
+                        step.type, locals[i], step.property.methodName());
+            } else {
+                code.addStatement("$T $N = $N.$N()",
+                        step.type, locals[i], locals[i - 1], step.property.methodName());
+            }
+        }
+
+        Comparison comparison = options.skipUnchanged == Comparison.EQUALS
+                ? Comparison.EQUALS
+                : Comparison.REFERENCE;
+        CodeBlock current =
+                CodeBlock.of("$N.$N()", locals[locals.length - 1], leaf.property.methodName());
+        code.beginControlFlow("if ($L)", Equality.same(leaf.type, leaf.property.nullable(),
+                        comparison, CodeBlock.of("$N", parameter), current))
+                .addStatement("return this")
+                .endControlFlow();
+
+        String value = parameter;
+        for (int i = path.size() - 1; i > 0; i--) {
+            value = locals[i - 1] + "." + path.get(i).withMethodName + "(" + value + ")";
+        }
+        Object[] arguments =
+                constructorCall.replacing(path.get(0).property.humanName(), value);
+
+        return newMethodBuilder(context, lensMethod.methodName, lensMethod.methodModifiers,
+                        lensMethod.methodAnnotations)
+                .addParameter(leaf.type, parameter)
+                .addCode(code.build())
+                .addCode(returnNewInstance(constructorCall, options, arguments))
+                .build();
+    }
+
+    private List<MethodSpec> generateCollectionMethods(Context context,
+            List<CollectionMethod> collectionMethods, ConstructorCall constructorCall,
+            Options options) {
+        List<MethodSpec> generatedMethods = new ArrayList<>(collectionMethods.size());
+        for (CollectionMethod collectionMethod : collectionMethods) {
+            generatedMethods.add(
+                    generateCollectionMethod(collectionMethod, context, constructorCall, options));
+        }
+        return generatedMethods;
+    }
+
+    /**
+     * Copies the collection at most once and returns {@code this} when adding an element that is
+     * already in a set, removing an element that isn't in the collection or putting an entry that
+     * is already in the map.
+     */
+    private MethodSpec generateCollectionMethod(CollectionMethod collectionMethod,
+            Context context, ConstructorCall constructorCall, Options options) {
+        List<TypeName> typeArguments = collectionMethod.typeArguments;
+        ClassName collectionClass = ClassName.get(collectionMethod.collectionType.type);
+        TypeName collectionType = ParameterizedTypeName.get(
+                collectionClass, typeArguments.toArray(new TypeName[0]));
+        TypeName builderType = ParameterizedTypeName.get(
+                collectionClass.nestedClass("Builder"), typeArguments.toArray(new TypeName[0]));
+
+        NameAllocator names = new NameAllocator();
+        List<ParameterSpec> parameters = new ArrayList<>(2);
+        for (int i = 0; i < collectionMethod.parameterNames.size(); i++) {
+            String name = names.newName(collectionMethod.parameterNames.get(i));
+            parameters.add(ParameterSpec.builder(typeArguments.get(i), name).build());
+        }
+        String element = parameters.get(0).name;
+        Property property = collectionMethod.property;
+        String current = names.newName(property.humanName());
+        String updated = names.newName("new" + Character.toUpperCase(current.charAt(0))
+                + current.substring(1));
+
+        CodeBlock.Builder code = CodeBlock.builder()
+                .addStatement("$T $N = $N()", collectionType, current, property.methodName());
+        switch (collectionMethod.operation) {
+            case ADD:
+                if (collectionMethod.collectionType == CollectionType.SET) {
+                    code.beginControlFlow("if ($N.contains($N))", current, element)
+                            .addStatement("return this")
+                            .endControlFlow();
+                }
+                code.addStatement("$T $N = $T.<$T>builder().addAll($N).add($N).build()",
+                        collectionType, updated, collectionClass, typeArguments.get(0), current,
+                        element);
+                break;
+            case REMOVE:
+                if (collectionMethod.collectionType == CollectionType.LIST) {
+                    String index = names.newName("index");
+                    code.addStatement("int $N = $N.indexOf($N)", index, current, element)
+                            .beginControlFlow("if ($N == -1)", index)
+                            .addStatement("return this")
+                            .endControlFlow()
+                            .addStatement("$T $N = $T.<$T>builder()\n"
+                                            + ".addAll($N.subList(0, $N))\n"
+                                            + ".addAll($N.subList($N + 1, $N.size()))\n"
+                                            + ".build()",
+                                    collectionType, updated, collectionClass, typeArguments.get(0),
+                                    current, index, current, index, current);
+                    break;
+                }
+                String builder = names.newName("builder");
+                if (collectionMethod.collectionType == CollectionType.SET) {
+                    String item = names.newName("item");
+                    code.beginControlFlow("if (!$N.contains($N))", current, element)
+                            .addStatement("return this")
+                            .endControlFlow()
+                            .addStatement("$T $N = $T.builder()", builderType, builder,
+                                    collectionClass)
+                            .beginControlFlow("for ($T $N : $N)", typeArguments.get(0), item,
+                                    current)
+                            .beginControlFlow("if (!$N.equals($N))", item, element)
+                            .addStatement("$N.add($N)", builder, item)
+                            .endControlFlow()
+                            .endControlFlow();
+                } else {
+                    String entry = names.newName("entry");
+                    code.beginControlFlow("if (!$N.containsKey($N))", current, element)
+                            .addStatement("return this")
+                            .endControlFlow()
+                            .addStatement("$T $N = $T.builder()", builderType, builder,
+                                    collectionClass)
+                            .beginControlFlow("for ($T $N : $N.entrySet())",
+                                    entryType(typeArguments), entry, current)
+                            .beginControlFlow("if (!$N.getKey().equals($N))", entry, element)
+                            .addStatement("$N.put($N)", builder, entry)
+                            .endControlFlow()
+                            .endControlFlow();
+                }
+                code.addStatement("$T $N = $N.build()", collectionType, updated, builder);
+                break;
+            case PUT:
+                String value = parameters.get(1).name;
+                String previous = names.newName("previous");
+                String mapBuilder = names.newName("builder");
+                String entry = names.newName("entry");
+                code.addStatement("$T $N = $N.get($N)",
+                                typeArguments.get(1), previous, current, element)
+                        .beginControlFlow("if ($N != null && $N.equals($N))",
+                                previous, previous, value)
+                        .addStatement("return this")
+                        .endControlFlow()
+                        .addStatement("$T $N = $T.builder()", builderType, mapBuilder,
+                                collectionClass)
+                        .beginControlFlow("if ($N == null)", previous)
+                        .addStatement("$N.putAll($N).put($N, $N)",
+                                mapBuilder, current, element, value)
+                        .nextControlFlow("else")
+                        .beginControlFlow("for ($T $N : $N.entrySet())",
+                                entryType(typeArguments), entry, current)
+                        .beginControlFlow("if ($N.getKey().equals($N))", entry, element)
+                        .addStatement("$N.put($N, $N)", mapBuilder, element, value)
+                        .nextControlFlow("else")
+                        .addStatement("$N.put($N)", mapBuilder, entry)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("$T $N = $N.build()", collectionType, updated, mapBuilder);
+                break;
+            default:
+                throw new AssertionError(collectionMethod.operation);
+        }
+
+        Object[] arguments = constructorCall.replacing(property.humanName(), updated);
+        return newMethodBuilder(context, collectionMethod.methodName,
+                        collectionMethod.methodModifiers, collectionMethod.methodAnnotations)
+                .addParameters(parameters)
+                .addCode(code.build())
+                .addCode(returnNewInstance(constructorCall, options, arguments))
+                .build();
+    }
+
+    private List<MethodSpec> generateUpdateMethods(Context context,
+            List<UpdateMethod> updateMethods, ConstructorCall constructorCall, Options options) {
+        List<MethodSpec> generatedMethods = new ArrayList<>(updateMethods.size());
+        for (UpdateMethod updateMethod : updateMethods) {
+            generatedMethods.add(
+                    generateUpdateMethod(updateMethod, context, constructorCall, options));
+        }
+        return generatedMethods;
+    }
+
+    /**
+     * Reads the property once and returns {@code this} if the function returns the current value.
+     * Primitive properties are passed to the primitive specialization of the function.
+     */
+    private MethodSpec generateUpdateMethod(UpdateMethod updateMethod, Context context,
+            ConstructorCall constructorCall, Options options) {
+        NameAllocator names = new NameAllocator();
+        String function = names.newName(updateMethod.parameterName);
+        Property property = updateMethod.property;
+        String current = names.newName(property.humanName());
+        String updated = names.newName("new" + Character.toUpperCase(current.charAt(0))
+                + current.substring(1));
+
+        Comparison comparison = options.skipUnchanged == Comparison.EQUALS
+                ? Comparison.EQUALS
+                : Comparison.REFERENCE;
+        CodeBlock code = CodeBlock.builder()
+                .addStatement("$T $N = $N()", property.type(), current, property.methodName())
+                .addStatement("$T $N = $N.$N($N)", property.type(), updated, function,
+                        updateMethod.applyMethodName, current)
+                .beginControlFlow("if ($L)", Equality.same(property.type(), property.nullable(),
+                        comparison, CodeBlock.of("$N", updated), CodeBlock.of("$N", current)))
+                .addStatement("return this")
+                .endControlFlow()
+                .build();
+
+        Object[] arguments = constructorCall.replacing(property.humanName(), updated);
+        return newMethodBuilder(context, updateMethod.methodName, updateMethod.methodModifiers,
+                        updateMethod.methodAnnotations)
+                .addParameter(updateMethod.parameterType, function)
+                .addCode(code)
+                .addCode(returnNewInstance(constructorCall, options, arguments))
+                .build();
+    }
+
+    private List<MethodSpec> generateDeltaMethods(Context context,
+            List<DeltaMethod> deltaMethods, List<Property> properties,
+            ConstructorCall constructorCall, Options options) {
+        List<MethodSpec> generatedMethods = new ArrayList<>(deltaMethods.size());
+        for (DeltaMethod deltaMethod : deltaMethods) {
+            generatedMethods.add(deltaMethod.operation == DeltaMethod.Operation.DIFF
+                    ? generateDiffMethod(deltaMethod, context, properties)
+                    : generateApplyDeltaMethod(
+                            deltaMethod, context, properties, constructorCall, options));
         }
         return generatedMethods;
     }
 
-    private MethodSpec generateWithMethod(
-            WithMethod withMethod, Context context, ImmutableList<Property> properties) {
-        String[] propertyNames = new String[properties.size()];
-        for (int i = 0; i < propertyNames.length; i++) {
+    /** Compares every property like the AutoValue generated {@code equals}. */
+    private MethodSpec generateDiffMethod(
+            DeltaMethod deltaMethod, Context context, List<Property> properties) {
+        NameAllocator names = new NameAllocator();
+        String other = names.newName(deltaMethod.parameterNames.get(0));
+        String changed = names.newName("changed");
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (deltaMethod.bitSet) {
+            code.addStatement("$T $N = new $T($L)",
+                    DeltaMethod.BIT_SET, changed, DeltaMethod.BIT_SET, properties.size());
+        } else {
+            code.addStatement("long $N = 0L", changed);
+        }
+        for (int i = 0; i < properties.size(); i++) {
             Property property = properties.get(i);
-            if (withMethod.propertyNames.contains(property.humanName())) {
-                propertyNames[i] = property.humanName();
+            CodeBlock same = Equality.same(property.type(), property.nullable(),
+                    Comparison.EQUALS, CodeBlock.of("$N.$N()", other, property.methodName()),
+                    CodeBlock.of("$N()", property.methodName()));
+            code.beginControlFlow("if (!($L))", same);
+            if (deltaMethod.bitSet) {
+                code.addStatement("$N.set($L)", changed, i);
             } else {
-                propertyNames[i] = property.methodName() + "()";
+                code.addStatement("$N |= $L", changed, bit(i));
+            }
+            code.endControlFlow();
+        }
+        code.addStatement("return $N", changed);
+
+        return newMethodBuilder(context, deltaMethod.methodName, deltaMethod.methodModifiers,
+                        deltaMethod.methodAnnotations)
+                .returns(deltaMethod.bitSet ? DeltaMethod.BIT_SET : TypeName.LONG)
+                .addParameter(deltaMethod.parameterTypes.get(0), other)
+                .addCode(code.build())
+                .build();
+    }
+
+    /**
+     * Passes the next value for every changed property and the current value for all others to
+     * a single constructor call.
+     */
+    private MethodSpec generateApplyDeltaMethod(DeltaMethod deltaMethod, Context context,
+            List<Property> properties, ConstructorCall constructorCall, Options options) {
+        NameAllocator names = new NameAllocator();
+        String changed = names.newName(deltaMethod.parameterNames.get(0));
+        String values = names.newName(deltaMethod.parameterNames.get(1));
+        String index = names.newName("index");
+        Object[] arguments = new Object[properties.size()];
+        boolean unchecked = false;
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            CodeBlock isChanged = deltaMethod.bitSet
+                    ? CodeBlock.of("$N.get($L)", changed, i)
+                    : CodeBlock.of("($N & $L) != 0", changed, bit(i));
+            arguments[i] = CodeBlock.of("$L ? ($T) $N[$N++] : $N()", isChanged,
+                    property.type().box(), values, index, property.methodName());
+            unchecked |= !isReifiable(property.type());
+        }
+
+        MethodSpec.Builder method = newMethodBuilder(context, deltaMethod.methodName,
+                        deltaMethod.methodModifiers, deltaMethod.methodAnnotations)
+                .addParameter(deltaMethod.parameterTypes.get(0), changed)
+                .addParameter(deltaMethod.parameterTypes.get(1), values)
+                .addStatement("int $N = 0", index)
+                .addCode(returnNewInstance(constructorCall, options, arguments));
+        if (unchecked) {
+            method.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+        return method.build();
+    }
+
+    private static String bit(int index) {
+        return index == 0 ? "1L" : "1L << " + index;
+    }
+
+    /** Returns whether a cast to {@code type} is checked at runtime. */
+    private static boolean isReifiable(TypeName type) {
+        if (type instanceof ArrayTypeName) {
+            return isReifiable(((ArrayTypeName) type).componentType);
+        }
+        return type.isPrimitive() || type instanceof ClassName;
+    }
+
+    private static TypeName entryType(List<TypeName> typeArguments) {
+        return ParameterizedTypeName.get(ClassName.get(Map.Entry.class),
+                typeArguments.toArray(new TypeName[0]));
+    }
+
+    /**
+     * Returns a statement that returns a new instance of the final class, canonicalized through
+     * the interner if the class is {@code @Interned}.
+     */
+    private static CodeBlock returnNewInstance(
+            ConstructorCall constructorCall, Options options, Object[] arguments) {
+        CodeBlock newInstance = constructorCall.newInstance(arguments);
+        if (options.internedMaximumSize == null) {
+            return CodeBlock.of("return $L;\n", newInstance);
+        }
+        return CodeBlock.of("return $N.intern($L);\n", INTERNER, newInstance);
+    }
+
+    /**
+     * Writes the source into a builder that is sized for the class up front, so that the source
+     * of classes with many properties and with-ers isn't copied repeatedly while it grows.
+     */
+    private static String toSource(
+            Context context, TypeSpec type, int methodCount, int propertyCount) {
+        // roughly the imports and constructor plus the argument list of every method
+        int estimatedLength = 1024 + (methodCount + 1) * (256 + propertyCount * 24);
+        StringBuilder source = new StringBuilder(estimatedLength);
+        try {
+            JavaFile.builder(context.packageName(), type).build().writeTo(source);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return source.toString();
+    }
+
+    /**
+     * The hash code can only be cached if {@code hashCode()} is not final and not implemented by
+     * {@code @Memoized}. An abstract {@code hashCode()} is implemented by AutoValue itself.
+     */
+    private boolean canCacheHashCode(Context context) {
+        Elements elements = context.processingEnvironment().getElementUtils();
+        TypeElement autoValueClass = context.autoValueClass();
+        for (ExecutableElement method :
+                ElementFilter.methodsIn(elements.getAllMembers(autoValueClass))) {
+            if (!method.getSimpleName().contentEquals("hashCode")
+                    || !method.getParameters().isEmpty()) {
+                continue;
+            }
+            boolean isFinal = method.getModifiers().contains(Modifier.FINAL);
+            if (isFinal || isMemoized(method)) {
+                String message = String.format(
+                        "hashCode() of %s can't be cached because it is %s", autoValueClass,
+                        isFinal ? "final" : "@Memoized");
+                context.processingEnvironment().getMessager()
+                        .printMessage(Kind.WARNING, message, method);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMemoized(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            TypeElement annotationType =
+                    MoreElements.asType(annotation.getAnnotationType().asElement());
+            if (annotationType.getQualifiedName().contentEquals(MEMOIZED)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Adds the method returning a new transient and its implementation, which keeps the values in
+     * mutable fields until {@code persistent()} creates a single new instance from them.
+     */
+    private void addTransient(Context context, String className, TypeSpec.Builder subclass,
+            TransientClass transientClass, List<Property> properties,
+            ConstructorCall constructorCall, Options options) {
+        ClassName transientType = ClassName.get(transientClass.type);
+        ClassName implementation = ClassName.get(context.packageName(), className)
+                .nestedClass(TransientClass.NAME + "Impl");
+        boolean isInterface = transientClass.type.getKind() == ElementKind.INTERFACE;
+
+        NameAllocator names = new NameAllocator();
+        Object[] arguments = new Object[properties.size()];
+        TypeSpec.Builder transientImpl = TypeSpec.classBuilder(implementation)
+                .addModifiers(PRIVATE, STATIC, FINAL);
+        if (isInterface) {
+            transientImpl.addSuperinterface(transientType);
+        } else {
+            transientImpl.superclass(transientType);
+        }
+        String source = names.newName("source");
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameter(getAutoValueClassTypeName(context), source);
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            String field = names.newName(property.humanName(), property.humanName());
+            transientImpl.addField(property.type(), field, PRIVATE);
+            constructor.addStatement("this.$N = $N.$N()", field, source, property.methodName());
+            arguments[i] = field;
+        }
+        String persisted = names.newName("persisted");
+        transientImpl.addField(TypeName.BOOLEAN, persisted, PRIVATE)
+                .addMethod(constructor.build());
+
+        CodeBlock checkNotPersisted = CodeBlock.builder()
+                .beginControlFlow("if ($N)", persisted)
+                .addStatement("throw new $T($S)", IllegalStateException.class,
+                        "persistent() was already called")
+                .endControlFlow()
+                .build();
+        for (WithMethod setter : transientClass.setters) {
+            MethodSpec.Builder method = transientMethodBuilder(setter.methodName,
+                    setter.methodModifiers, isInterface)
+                    .returns(transientType)
+                    .addCode(checkNotPersisted);
+            for (int i = 0; i < setter.properties.size(); i++) {
+                Property property = setter.properties.get(i);
+                String name = property.humanName();
+                method.addParameter(setter.parameterTypes.get(i), name);
+                method.addStatement("this.$N = $L", names.get(name),
+                        setter.isPrimitiveSpecialized(i)
+                                ? Boxing.wrap(property.type(), name)
+                                : CodeBlock.of("$N", name));
+            }
+            transientImpl.addMethod(method.addStatement("return this").build());
+        }
+        ExecutableElement persistentMethod = transientClass.persistentMethod;
+        transientImpl.addMethod(transientMethodBuilder(
+                        persistentMethod.getSimpleName().toString(),
+                        persistentMethod.getModifiers(), isInterface)
+                .returns(getAutoValueClassTypeName(context))
+                .addCode(checkNotPersisted)
+                .addStatement("$N = true", persisted)
+                .addCode(returnNewInstance(constructorCall, options, arguments))
+                .build());
+        subclass.addType(transientImpl.build());
 
-        List<AnnotationSpec> annotations = new ArrayList<>(withMethod.methodAnnotations.size() + 1);
-        for (AnnotationMirror methodAnnotation : withMethod.methodAnnotations) {
+        subclass.addMethod(newMethodBuilder(context, transientClass.methodName,
+                        transientClass.methodModifiers, transientClass.methodAnnotations)
+                .returns(transientType)
+                .addStatement("return new $T(this)", implementation)
+                .build());
+    }
+
+    private MethodSpec.Builder transientMethodBuilder(
+            String name, Set<Modifier> methodModifiers, boolean isInterface) {
+        MethodSpec.Builder method = MethodSpec.methodBuilder(name).addAnnotation(OVERRIDE);
+        if (isInterface || methodModifiers.contains(Modifier.PUBLIC)) {
+            method.addModifiers(PUBLIC);
+        } else if (methodModifiers.contains(Modifier.PROTECTED)) {
+            method.addModifiers(Modifier.PROTECTED);
+        }
+        return method;
+    }
+
+    private boolean canIntern(Context context, Options options) {
+        Messager messager = context.processingEnvironment().getMessager();
+        TypeElement autoValueClass = context.autoValueClass();
+        if (!autoValueClass.getTypeParameters().isEmpty()) {
+            messager.printMessage(Kind.ERROR,
+                    "@Interned is not supported for generic classes", autoValueClass);
+            return false;
+        }
+        if (options.internedMaximumSize <= 0) {
+            messager.printMessage(Kind.ERROR,
+                    "@Interned maximumSize must be positive", autoValueClass);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the interner as a package-private field so that its hit and miss counts can be read
+     * from the package of the AutoValue class.
+     */
+    private void addInterner(Context context, TypeSpec.Builder subclass, int maximumSize) {
+        TypeName type = ParameterizedTypeName.get(
+                ClassName.get(WithInterner.class), getAutoValueClassTypeName(context));
+        subclass.addField(FieldSpec.builder(type, INTERNER, STATIC, FINAL)
+                .initializer("new $T($L)", type, maximumSize)
+                .build());
+    }
+
+    /**
+     * Caches the hash code in a plain field like {@link String#hashCode()}. Concurrent first calls
+     * may all compute it but will write the same value, a result of 0 is never cached.
+     */
+    private void addCachedHashCode(TypeSpec.Builder subclass) {
+        subclass.addField(TypeName.INT, "cachedHashCode", PRIVATE, TRANSIENT);
+        subclass.addMethod(MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("int h = cachedHashCode")
+                .beginControlFlow("if (h == 0)")
+                .addStatement("h = super.hashCode()")
+                .addStatement("cachedHashCode = h")
+                .endControlFlow()
+                .addStatement("return h")
+                .build());
+    }
+
+    /**
+     * Returns a builder for a final method overriding an abstract with-er with the same name,
+     * visibility and annotations.
+     */
+    private MethodSpec.Builder newMethodBuilder(Context context, String name,
+            Set<Modifier> methodModifiers, List<? extends AnnotationMirror> methodAnnotations) {
+        List<AnnotationSpec> annotations = new ArrayList<>(methodAnnotations.size() + 1);
+        for (AnnotationMirror methodAnnotation : methodAnnotations) {
             annotations.add(AnnotationSpec.get(methodAnnotation));
         }
-        AnnotationSpec override = AnnotationSpec.builder(Override.class).build();
-        if (!annotations.contains(override)) {
-            annotations.add(0, override);
+        if (!annotations.contains(OVERRIDE)) {
+            annotations.add(0, OVERRIDE);
         }
 
         List<Modifier> modifiers = new ArrayList<>(2);
         modifiers.add(FINAL);
-        for (Modifier modifier : withMethod.methodModifiers) {
+        for (Modifier modifier : methodModifiers) {
             if (modifier == Modifier.PUBLIC || modifier == Modifier.PROTECTED) {
                 modifiers.add(modifier);
                 break;
             }
         }
 
-        List<ParameterSpec> parameters = new ArrayList<>(withMethod.properties.size());
-        for (Property property : withMethod.properties) {
-            parameters.add(ParameterSpec.builder(property.type(), property.humanName()).build());
-        }
-
-        return MethodSpec.methodBuilder(withMethod.methodName)
+        return MethodSpec.methodBuilder(name)
                 .addAnnotations(annotations)
                 .addModifiers(modifiers)
-                .returns(getAutoValueClassTypeName(context))
-                .addParameters(parameters)
-                .addCode("return ")
-                .addCode(newFinalClassConstructorCall(context, propertyNames))
+                .returns(getAutoValueClassTypeName(context));
+    }
+
+    /**
+     * Returns {@code this} when none of the values differ from the current ones. Primitive values
+     * passed for boxed or optional properties are always checked because comparing them is exact
+     * and the check avoids boxing, other values only if enabled through the options.
+     */
+    private CodeBlock generateUnchangedCheck(WithMethod withMethod, Comparison comparison) {
+        if (withMethod.properties.isEmpty()) {
+            return CodeBlock.of("");
+        }
+        List<CodeBlock> checks = new ArrayList<>(withMethod.properties.size());
+        for (int i = 0; i < withMethod.properties.size(); i++) {
+            Property property = withMethod.properties.get(i);
+            CodeBlock current = CodeBlock.of("$N()", property.methodName());
+            if (withMethod.isPrimitiveSpecialized(i)) {
+                checks.add(Boxing.same(
+                        property.type(), property.nullable(), property.humanName(), current));
+            } else if (comparison != Comparison.NONE) {
+                CodeBlock value = CodeBlock.of("$N", property.humanName());
+                checks.add(Equality.same(
+                        property.type(), property.nullable(), comparison, value, current));
+            } else {
+                return CodeBlock.of("");
+            }
+        }
+        return CodeBlock.builder()
+                .beginControlFlow("if ($L)", CodeBlock.join(checks, " && "))
+                .addStatement("return this")
+                .endControlFlow()
                 .build();
     }
 }
@@ -0,0 +1,106 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.with.Options.Comparison;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+
+/**
+ * Support for with-ers that take a primitive value for a boxed or optional property, e.g.
+ * {@code withCount(int count)} for an {@code Integer} or {@code OptionalInt} property.
+ */
+final class Boxing {
+
+    private static final ClassName OPTIONAL = ClassName.get("java.util", "Optional");
+    private static final ClassName OPTIONAL_INT = ClassName.get("java.util", "OptionalInt");
+    private static final ClassName OPTIONAL_LONG = ClassName.get("java.util", "OptionalLong");
+    private static final ClassName OPTIONAL_DOUBLE = ClassName.get("java.util", "OptionalDouble");
+    private static final ClassName GUAVA_OPTIONAL =
+            ClassName.get("com.google.common.base", "Optional");
+
+    /**
+     * Returns the primitive type that can be passed for a property of type {@code propertyType}
+     * or {@code null} if there is none.
+     */
+    static TypeName primitiveType(TypeName propertyType) {
+        if (propertyType.isBoxedPrimitive()) {
+            return propertyType.unbox();
+        }
+        if (propertyType.equals(OPTIONAL_INT)) {
+            return TypeName.INT;
+        }
+        if (propertyType.equals(OPTIONAL_LONG)) {
+            return TypeName.LONG;
+        }
+        if (propertyType.equals(OPTIONAL_DOUBLE)) {
+            return TypeName.DOUBLE;
+        }
+        TypeName valueType = optionalValueType(propertyType);
+        if (valueType != null && valueType.isBoxedPrimitive()) {
+            return valueType.unbox();
+        }
+        return null;
+    }
+
+    /**
+     * Returns an expression that converts the primitive {@code value} to {@code propertyType}.
+     * Boxes are created with {@code valueOf} to reuse cached instances.
+     */
+    static CodeBlock wrap(TypeName propertyType, String value) {
+        if (propertyType.isBoxedPrimitive()) {
+            return CodeBlock.of("$T.valueOf($N)", propertyType, value);
+        }
+        TypeName valueType = optionalValueType(propertyType);
+        if (valueType != null) {
+            ClassName optional = ((ParameterizedTypeName) propertyType).rawType;
+            return CodeBlock.of("$T.of($T.valueOf($N))", optional, valueType, value);
+        }
+        return CodeBlock.of("$T.of($N)", propertyType, value);
+    }
+
+    /**
+     * Returns an expression that is {@code true} when the primitive {@code value} is the value of
+     * the current property.
+     */
+    static CodeBlock same(TypeName propertyType, boolean nullable, String value,
+            CodeBlock current) {
+        CodeBlock same = sameAsPresent(propertyType, CodeBlock.of("$N", value), current);
+        return nullable ? CodeBlock.of("$L != null && $L", current, same) : same;
+    }
+
+    private static CodeBlock sameAsPresent(TypeName propertyType, CodeBlock value,
+            CodeBlock current) {
+        TypeName primitiveType = primitiveType(propertyType);
+        if (propertyType.isBoxedPrimitive()) {
+            return Equality.same(primitiveType, false, Comparison.EQUALS, value, current);
+        }
+        CodeBlock present;
+        if (optionalValueType(propertyType) != null) {
+            present = CodeBlock.of("$L.get()", current);
+        } else if (primitiveType.equals(TypeName.INT)) {
+            present = CodeBlock.of("$L.getAsInt()", current);
+        } else if (primitiveType.equals(TypeName.LONG)) {
+            present = CodeBlock.of("$L.getAsLong()", current);
+        } else {
+            present = CodeBlock.of("$L.getAsDouble()", current);
+        }
+        return CodeBlock.of("$L.isPresent() && $L", current,
+                Equality.same(primitiveType, false, Comparison.EQUALS, value, present));
+    }
+
+    /** Returns {@code T} for {@code Optional<T>} or {@code null} for other types. */
+    private static TypeName optionalValueType(TypeName type) {
+        if (!(type instanceof ParameterizedTypeName)) {
+            return null;
+        }
+        ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+        if (!parameterized.rawType.equals(OPTIONAL)
+                && !parameterized.rawType.equals(GUAVA_OPTIONAL)) {
+            return null;
+        }
+        return parameterized.typeArguments.get(0);
+    }
+
+    private Boxing() {}
+}
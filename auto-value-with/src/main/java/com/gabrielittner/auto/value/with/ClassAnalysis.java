@@ -0,0 +1,112 @@
+package com.gabrielittner.auto.value.with;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.Set;
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * The result of analyzing a single AutoValue class. It is created by the first extension callback
+ * for a class and reused by the following ones so that methods are only filtered once and with-er
+ * types are only resolved once.
+ */
+final class ClassAnalysis {
+
+    private final Set<ExecutableElement> abstractMethods;
+    /** All methods implemented by the extension. */
+    final ImmutableSet<ExecutableElement> methods;
+    final Options options;
+    /** The transient companion of the class or {@code null} if it doesn't declare one. */
+    final TransientClass transientClass;
+
+    private final ImmutableSet<ExecutableElement> withMethodElements;
+    private final ImmutableSet<ExecutableElement> lensMethodElements;
+    private final ImmutableSet<ExecutableElement> collectionMethodElements;
+    private final ImmutableSet<ExecutableElement> deltaMethodElements;
+    private final ImmutableSet<ExecutableElement> updateMethodElements;
+    private List<WithMethod> withMethods;
+    private List<LensMethod> lensMethods;
+    private List<CollectionMethod> collectionMethods;
+    private List<DeltaMethod> deltaMethods;
+    private List<UpdateMethod> updateMethods;
+
+    private ClassAnalysis(Context context) {
+        this.abstractMethods = context.abstractMethods();
+        this.methods = WithMethod.filteredAbstractMethods(context);
+        this.options = Options.get(context);
+        this.transientClass = TransientClass.get(context);
+
+        ImmutableSet.Builder<ExecutableElement> withMethodElements = ImmutableSet.builder();
+        ImmutableSet.Builder<ExecutableElement> lensMethodElements = ImmutableSet.builder();
+        ImmutableSet.Builder<ExecutableElement> collectionMethodElements = ImmutableSet.builder();
+        ImmutableSet.Builder<ExecutableElement> deltaMethodElements = ImmutableSet.builder();
+        ImmutableSet.Builder<ExecutableElement> updateMethodElements = ImmutableSet.builder();
+        for (ExecutableElement method : methods) {
+            if (DeltaMethod.isCandidate(method)) {
+                deltaMethodElements.add(method);
+            } else if (CollectionMethod.isCandidate(method, context.properties())) {
+                collectionMethodElements.add(method);
+            } else if (UpdateMethod.isCandidate(method, context.properties())) {
+                updateMethodElements.add(method);
+            } else if (LensMethod.isCandidate(method, context.properties())) {
+                lensMethodElements.add(method);
+            } else {
+                withMethodElements.add(method);
+            }
+        }
+        this.withMethodElements = withMethodElements.build();
+        this.lensMethodElements = lensMethodElements.build();
+        this.collectionMethodElements = collectionMethodElements.build();
+        this.deltaMethodElements = deltaMethodElements.build();
+        this.updateMethodElements = updateMethodElements.build();
+    }
+
+    static ClassAnalysis create(Context context) {
+        return new ClassAnalysis(context);
+    }
+
+    /**
+     * AutoValue creates a new {@link Context} after extensions consumed methods, the abstract
+     * methods stay the same for all callbacks for the same class in the same round.
+     */
+    boolean isFor(Context context) {
+        return abstractMethods.equals(context.abstractMethods());
+    }
+
+    List<WithMethod> withMethods(Context context) {
+        if (withMethods == null) {
+            withMethods = WithMethod.getWithMethods(context, withMethodElements, options);
+        }
+        return withMethods;
+    }
+
+    List<LensMethod> lensMethods(Context context) {
+        if (lensMethods == null) {
+            lensMethods = LensMethod.getLensMethods(context, lensMethodElements);
+        }
+        return lensMethods;
+    }
+
+    List<CollectionMethod> collectionMethods(Context context) {
+        if (collectionMethods == null) {
+            collectionMethods = CollectionMethod.getCollectionMethods(
+                    context, collectionMethodElements);
+        }
+        return collectionMethods;
+    }
+
+    List<DeltaMethod> deltaMethods(Context context) {
+        if (deltaMethods == null) {
+            deltaMethods = DeltaMethod.getDeltaMethods(context, deltaMethodElements);
+        }
+        return deltaMethods;
+    }
+
+    List<UpdateMethod> updateMethods(Context context) {
+        if (updateMethods == null) {
+            updateMethods = UpdateMethod.getUpdateMethods(context, updateMethodElements);
+        }
+        return updateMethods;
+    }
+}
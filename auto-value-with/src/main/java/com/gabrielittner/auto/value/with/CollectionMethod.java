@@ -0,0 +1,242 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.common.MoreElements;
+import com.google.auto.common.MoreTypes;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.squareup.javapoet.TypeName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * A with-er that adds or removes a single element of an {@code ImmutableList},
+ * {@code ImmutableSet} or {@code ImmutableMap} property:
+ * <ul>
+ *   <li>{@code withAddedTags(String tag)} appends to a list or adds to a set</li>
+ *   <li>{@code withoutTags(String tag)} removes from a list or set, or removes a map key</li>
+ *   <li>{@code withPutScores(String key, Integer value)} puts a map entry</li>
+ * </ul>
+ * The property name may also be used in singular form, e.g. {@code withAddedTag} for
+ * {@code tags}.
+ */
+class CollectionMethod {
+
+    enum Operation {
+        ADD("withAdded"),
+        REMOVE("without"),
+        PUT("withPut");
+
+        final String prefix;
+
+        Operation(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    enum CollectionType {
+        LIST(ImmutableList.class),
+        SET(ImmutableSet.class),
+        MAP(ImmutableMap.class);
+
+        final Class<?> type;
+
+        CollectionType(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    final String methodName;
+    final Set<Modifier> methodModifiers;
+    final List<? extends AnnotationMirror> methodAnnotations;
+
+    final Operation operation;
+    final CollectionType collectionType;
+    final Property property;
+    /** The type arguments of the collection. */
+    final List<TypeName> typeArguments;
+    final List<String> parameterNames;
+
+    private CollectionMethod(ExecutableElement method, Operation operation,
+            CollectionType collectionType, Property property, List<TypeName> typeArguments) {
+        this.methodName = method.getSimpleName().toString();
+        this.methodModifiers = method.getModifiers();
+        this.methodAnnotations = method.getAnnotationMirrors();
+        this.operation = operation;
+        this.collectionType = collectionType;
+        this.property = property;
+        this.typeArguments = typeArguments;
+        List<String> parameterNames = new ArrayList<>(2);
+        for (VariableElement parameter : method.getParameters()) {
+            parameterNames.add(parameter.getSimpleName().toString());
+        }
+        this.parameterNames = parameterNames;
+    }
+
+    /**
+     * Returns whether {@code method} uses one of the collection prefixes. Methods whose
+     * parameters are all properties are regular with-ers, e.g. {@code withAddedBy(String addedBy)}.
+     */
+    static boolean isCandidate(ExecutableElement method, Map<String, ExecutableElement> properties) {
+        if (operation(method) == null) {
+            return false;
+        }
+        for (VariableElement parameter : method.getParameters()) {
+            if (!properties.containsKey(parameter.getSimpleName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<CollectionMethod> getCollectionMethods(
+            Context context, Set<ExecutableElement> methods) {
+        Messager messager = context.processingEnvironment().getMessager();
+        Map<String, ExecutableElement> properties = context.properties();
+        Map<String, TypeMirror> propertyTypes = context.propertyTypes();
+
+        List<CollectionMethod> collectionMethods = new ArrayList<>(methods.size());
+        for (ExecutableElement method : methods) {
+            if (!WithMethod.hasValidReturnType(context, method)) {
+                continue;
+            }
+
+            Operation operation = operation(method);
+            String name = method.getSimpleName().toString().substring(operation.prefix.length());
+            String propertyName = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+            if (!properties.containsKey(propertyName)
+                    && properties.containsKey(propertyName + "s")) {
+                propertyName = propertyName + "s";
+            }
+            ExecutableElement propertyMethod = properties.get(propertyName);
+            if (propertyMethod == null) {
+                String message = String.format("Property \"%s\" not found", propertyName);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+            Property property = new Property(propertyName, propertyMethod);
+            TypeMirror propertyType = propertyTypes.get(propertyName);
+            CollectionType collectionType = collectionType(propertyType);
+            if (collectionType == null) {
+                String message = String.format(
+                        "Property \"%s\" is not an ImmutableList, ImmutableSet or ImmutableMap",
+                        propertyName);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+            if (property.nullable()) {
+                String message = String.format("Property \"%s\" is @Nullable", propertyName);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+
+            if (hasWildcard(propertyType)) {
+                String message = String.format(
+                        "Property \"%s\" can't have wildcard type arguments", propertyName);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+            List<TypeName> typeArguments = new ArrayList<>(2);
+            for (TypeMirror typeArgument : MoreTypes.asDeclared(propertyType).getTypeArguments()) {
+                typeArguments.add(TypeName.get(typeArgument));
+            }
+            List<TypeName> expectedTypes = expectedParameterTypes(
+                    operation, collectionType, typeArguments);
+            if (expectedTypes == null) {
+                String message = String.format("%s is not supported for %s",
+                        operation.prefix, collectionType.type.getSimpleName());
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+            if (!hasParameterTypes(messager, method, expectedTypes)) {
+                continue;
+            }
+            collectionMethods.add(new CollectionMethod(
+                    method, operation, collectionType, property, typeArguments));
+        }
+        return collectionMethods;
+    }
+
+    private static Operation operation(ExecutableElement method) {
+        String name = method.getSimpleName().toString();
+        for (Operation operation : Operation.values()) {
+            if (name.length() > operation.prefix.length()
+                    && name.startsWith(operation.prefix)
+                    && Character.isUpperCase(name.charAt(operation.prefix.length()))) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    private static CollectionType collectionType(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        DeclaredType declaredType = MoreTypes.asDeclared(type);
+        String name = MoreElements.asType(declaredType.asElement()).getQualifiedName().toString();
+        for (CollectionType collectionType : CollectionType.values()) {
+            if (collectionType.type.getName().equals(name)
+                    && !declaredType.getTypeArguments().isEmpty()) {
+                return collectionType;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasWildcard(TypeMirror type) {
+        for (TypeMirror typeArgument : MoreTypes.asDeclared(type).getTypeArguments()) {
+            if (typeArgument.getKind() == TypeKind.WILDCARD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<TypeName> expectedParameterTypes(Operation operation,
+            CollectionType collectionType, List<TypeName> typeArguments) {
+        switch (operation) {
+            case ADD:
+                return collectionType == CollectionType.MAP ? null : typeArguments;
+            case REMOVE:
+                return typeArguments.subList(0, 1);
+            case PUT:
+                return collectionType == CollectionType.MAP ? typeArguments : null;
+            default:
+                throw new AssertionError(operation);
+        }
+    }
+
+    private static boolean hasParameterTypes(Messager messager,
+            ExecutableElement method, List<TypeName> expectedTypes) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != expectedTypes.size()) {
+            String message = String.format("Expected %d parameters", expectedTypes.size());
+            messager.printMessage(Kind.ERROR, message, method);
+            return false;
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            if (!TypeName.get(parameter.asType()).equals(expectedTypes.get(i))) {
+                String message = String.format("Expected type %s for %s",
+                        expectedTypes.get(i), parameter.getSimpleName());
+                messager.printMessage(Kind.ERROR, message, parameter);
+                return false;
+            }
+        }
+        return true;
+    }
+}
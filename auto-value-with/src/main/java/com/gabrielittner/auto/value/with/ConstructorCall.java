@@ -0,0 +1,86 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getFinalClassClassName;
+
+/**
+ * Creates calls to the constructor of the final class. The arguments passing the current values
+ * are created once per class and shared by all generated methods, each method copies them and
+ * replaces the ones of the properties it updates.
+ *
+ * <p>Arguments are either plain expressions as {@code String} or {@link CodeBlock}s that refer to
+ * types. JavaPoet emits every format argument on its own, which is expensive for classes with
+ * hundreds of properties, so consecutive plain expressions are emitted as a single literal.
+ */
+final class ConstructorCall {
+
+    private final ClassName finalClass;
+    private final boolean generic;
+    private final String[] currentValues;
+    private final Map<String, Integer> indices;
+    private final int argumentsLength;
+
+    ConstructorCall(Context context, List<Property> properties) {
+        this.finalClass = getFinalClassClassName(context);
+        this.generic = !context.autoValueClass().getTypeParameters().isEmpty();
+        this.currentValues = new String[properties.size()];
+        this.indices = new HashMap<>(properties.size() * 2);
+        int argumentsLength = 0;
+        for (int i = 0; i < currentValues.length; i++) {
+            Property property = properties.get(i);
+            currentValues[i] = property.methodName() + "()";
+            indices.put(property.humanName(), i);
+            argumentsLength += currentValues[i].length() + 2;
+        }
+        this.argumentsLength = argumentsLength;
+    }
+
+    int propertyCount() {
+        return currentValues.length;
+    }
+
+    /** Returns arguments that pass the current value of every property. */
+    Object[] currentArguments() {
+        Object[] arguments = new Object[currentValues.length];
+        System.arraycopy(currentValues, 0, arguments, 0, currentValues.length);
+        return arguments;
+    }
+
+    /** Returns the index of the argument for {@code propertyName}. */
+    int indexOf(String propertyName) {
+        return indices.get(propertyName);
+    }
+
+    /** Returns arguments that pass {@code value} for {@code propertyName}. */
+    Object[] replacing(String propertyName, Object value) {
+        Object[] arguments = currentArguments();
+        arguments[indexOf(propertyName)] = value;
+        return arguments;
+    }
+
+    CodeBlock newInstance(Object[] arguments) {
+        CodeBlock.Builder call = CodeBlock.builder()
+                .add(generic ? "new $T<>(" : "new $T(", finalClass);
+        StringBuilder expressions = new StringBuilder(argumentsLength);
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                expressions.append(", ");
+            }
+            Object argument = arguments[i];
+            if (argument instanceof CodeBlock) {
+                call.add("$L", expressions.toString()).add("$L", argument);
+                expressions.setLength(0);
+            } else {
+                expressions.append((String) argument);
+            }
+        }
+        return call.add("$L)", expressions.toString()).build();
+    }
+}
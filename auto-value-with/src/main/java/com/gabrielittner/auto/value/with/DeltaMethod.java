@@ -0,0 +1,151 @@
+package com.gabrielittner.auto.value.with;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * A method that compares two instances or that applies the changes found by such a comparison.
+ * Properties are numbered in the order AutoValue passes them to the constructor:
+ * <pre>{@code
+ * abstract long diff(Value other);
+ * abstract Value applyDelta(long changed, Object[] values);
+ * }</pre>
+ * {@code diff} sets the bit of every property whose value differs in {@code other}. The values
+ * passed to {@code applyDelta} are the new values of the changed properties in ascending order.
+ * Both methods can use a {@code BitSet} instead of a {@code long}, which is required for classes
+ * with more than 64 properties.
+ */
+final class DeltaMethod {
+
+    enum Operation {
+        DIFF("diff", 1),
+        APPLY("applyDelta", 2);
+
+        final String methodName;
+        final int parameterCount;
+
+        Operation(String methodName, int parameterCount) {
+            this.methodName = methodName;
+            this.parameterCount = parameterCount;
+        }
+    }
+
+    static final TypeName BIT_SET = ClassName.get(BitSet.class);
+    private static final TypeName VALUES = ArrayTypeName.of(Object.class);
+    private static final int MAX_LONG_PROPERTIES = 64;
+
+    final String methodName;
+    final Set<Modifier> methodModifiers;
+    final List<? extends AnnotationMirror> methodAnnotations;
+
+    final Operation operation;
+    /** Whether changed properties are passed as {@code BitSet} instead of {@code long}. */
+    final boolean bitSet;
+    final List<TypeName> parameterTypes;
+    final List<String> parameterNames;
+
+    private DeltaMethod(ExecutableElement method, Operation operation, boolean bitSet,
+            List<TypeName> parameterTypes) {
+        this.methodName = method.getSimpleName().toString();
+        this.methodModifiers = method.getModifiers();
+        this.methodAnnotations = method.getAnnotationMirrors();
+        this.operation = operation;
+        this.bitSet = bitSet;
+        this.parameterTypes = parameterTypes;
+        List<String> parameterNames = new ArrayList<>(2);
+        for (VariableElement parameter : method.getParameters()) {
+            parameterNames.add(parameter.getSimpleName().toString());
+        }
+        this.parameterNames = parameterNames;
+    }
+
+    /**
+     * Returns whether {@code method} is a delta method. Only the name and the number of parameters
+     * are checked, a property named {@code diff} or {@code applyDelta} is left to AutoValue.
+     */
+    static boolean isCandidate(ExecutableElement method) {
+        return operation(method) != null;
+    }
+
+    static List<DeltaMethod> getDeltaMethods(
+            Context context, Set<ExecutableElement> methods) {
+        Messager messager = context.processingEnvironment().getMessager();
+        Types types = context.processingEnvironment().getTypeUtils();
+
+        List<DeltaMethod> deltaMethods = new ArrayList<>(methods.size());
+        for (ExecutableElement method : methods) {
+            Operation operation = operation(method);
+            List<? extends VariableElement> parameters = method.getParameters();
+            List<TypeName> parameterTypes = new ArrayList<>(2);
+            for (VariableElement parameter : parameters) {
+                parameterTypes.add(TypeName.get(parameter.asType()));
+            }
+
+            TypeName changedType;
+            if (operation == Operation.DIFF) {
+                if (!types.isSameType(
+                        parameters.get(0).asType(), context.autoValueClass().asType())) {
+                    String message = String.format("Expected a single %s parameter",
+                            context.autoValueClass().getSimpleName());
+                    messager.printMessage(Kind.ERROR, message, method);
+                    continue;
+                }
+                changedType = TypeName.get(method.getReturnType());
+                if (!isChangedType(changedType)) {
+                    messager.printMessage(
+                            Kind.ERROR, "Expected long or BitSet as return type", method);
+                    continue;
+                }
+            } else {
+                if (!WithMethod.hasValidReturnType(context, method)) {
+                    continue;
+                }
+                if (!isChangedType(parameterTypes.get(0))
+                        || !parameterTypes.get(1).equals(VALUES)) {
+                    messager.printMessage(Kind.ERROR,
+                            "Expected parameters of type long or BitSet and Object[]", method);
+                    continue;
+                }
+                changedType = parameterTypes.get(0);
+            }
+
+            boolean bitSet = changedType.equals(BIT_SET);
+            if (!bitSet && context.properties().size() > MAX_LONG_PROPERTIES) {
+                String message = String.format("%s has more than %d properties, use BitSet"
+                                + " instead of long", context.autoValueClass().getSimpleName(),
+                        MAX_LONG_PROPERTIES);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            }
+            deltaMethods.add(new DeltaMethod(method, operation, bitSet, parameterTypes));
+        }
+        return deltaMethods;
+    }
+
+    private static Operation operation(ExecutableElement method) {
+        for (Operation operation : Operation.values()) {
+            if (method.getSimpleName().contentEquals(operation.methodName)
+                    && method.getParameters().size() == operation.parameterCount) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isChangedType(TypeName type) {
+        return type.equals(TypeName.LONG) || type.equals(BIT_SET);
+    }
+}
@@ -0,0 +1,41 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.with.Options.Comparison;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.TypeName;
+import java.util.Arrays;
+
+final class Equality {
+
+    /**
+     * Returns an expression that is {@code true} when {@code value} can be used in place of
+     * {@code current} without changing the result of the AutoValue generated {@code equals}.
+     * Floating point values are compared by their bits so that {@code 0.0} and {@code -0.0} are
+     * not treated as equal.
+     */
+    static CodeBlock same(TypeName type, boolean nullable, Comparison comparison,
+            CodeBlock value, CodeBlock current) {
+        if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($L) == $T.floatToIntBits($L)",
+                    Float.class, value, Float.class, current);
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$T.doubleToLongBits($L) == $T.doubleToLongBits($L)",
+                    Double.class, value, Double.class, current);
+        }
+        if (type.isPrimitive() || comparison != Comparison.EQUALS) {
+            return CodeBlock.of("$L == $L", value, current);
+        }
+        if (type instanceof ArrayTypeName) {
+            return CodeBlock.of("$T.equals($L, $L)", Arrays.class, value, current);
+        }
+        if (nullable) {
+            return CodeBlock.of("($L == null ? $L == null : $L.equals($L))",
+                    value, current, value, current);
+        }
+        return CodeBlock.of("$L.equals($L)", current, value);
+    }
+
+    private Equality() {}
+}
@@ -0,0 +1,281 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.common.MoreElements;
+import com.google.auto.common.MoreTypes;
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.TypeName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * A with-er that updates a property of a nested AutoValue object, e.g.
+ * {@code withSessionUserName(String name)} updates {@code session().user().name()}. Every object
+ * on the path is rebuilt with its own with-er while all other properties are shared.
+ */
+class LensMethod {
+
+    /** A property on the path to the updated value. */
+    static final class Step {
+        final Property property;
+        /** The type of the property as member of the type declaring it. */
+        final TypeName type;
+        /**
+         * The with-er of the type declaring the property, {@code null} for properties of the
+         * processed class which are replaced by calling its constructor.
+         */
+        final String withMethodName;
+
+        Step(Property property, TypeName type, String withMethodName) {
+            this.property = property;
+            this.type = type;
+            this.withMethodName = withMethodName;
+        }
+    }
+
+    final String methodName;
+    final Set<Modifier> methodModifiers;
+    final List<? extends AnnotationMirror> methodAnnotations;
+
+    /** The path starting at a property of the AutoValue class, the last step is the leaf. */
+    final List<Step> path;
+    final String parameterName;
+
+    private LensMethod(ExecutableElement method, List<Step> path) {
+        this.methodName = method.getSimpleName().toString();
+        this.methodModifiers = method.getModifiers();
+        this.methodAnnotations = method.getAnnotationMirrors();
+        this.path = path;
+        this.parameterName = method.getParameters().get(0).getSimpleName().toString();
+    }
+
+    /**
+     * Returns whether {@code method} should be handled as a lens with-er, which is the case for
+     * with-ers with a single parameter that doesn't match a property of the AutoValue class.
+     */
+    static boolean isCandidate(ExecutableElement method, Map<String, ExecutableElement> properties) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        return parameters.size() == 1
+                && !properties.containsKey(parameters.get(0).getSimpleName().toString());
+    }
+
+    static List<LensMethod> getLensMethods(
+            Context context, Set<ExecutableElement> methods) {
+        Messager messager = context.processingEnvironment().getMessager();
+
+        List<LensMethod> lensMethods = new ArrayList<>(methods.size());
+        for (ExecutableElement method : methods) {
+            if (!WithMethod.hasValidReturnType(context, method)) {
+                continue;
+            }
+
+            VariableElement parameter = method.getParameters().get(0);
+            String parameterName = parameter.getSimpleName().toString();
+            String name = method.getSimpleName().toString().substring(WithMethod.PREFIX.length());
+            List<Step> path = resolve(context, context.autoValueClass().asType(),
+                    context.properties(), name, parameterName);
+            if (path == null) {
+                String message = String.format("Property \"%s\" not found", parameterName);
+                messager.printMessage(Kind.ERROR, message, parameter);
+                continue;
+            }
+
+            Step leaf = path.get(path.size() - 1);
+            if (!TypeName.get(parameter.asType()).equals(leaf.type)) {
+                String message =
+                        String.format("Expected type %s for %s", leaf.type, parameterName);
+                messager.printMessage(Kind.ERROR, message, parameter);
+                continue;
+            }
+            if (isValidPath(context, method, path)) {
+                lensMethods.add(new LensMethod(method, path));
+            }
+        }
+        return lensMethods;
+    }
+
+    /**
+     * Checks that the generated code can read every property on the path. The getters of nested
+     * classes are called on their instances, so they have to be accessible, and every property
+     * but the leaf has to be non-null.
+     */
+    private static boolean isValidPath(Context context, ExecutableElement method, List<Step> path) {
+        Messager messager = context.processingEnvironment().getMessager();
+        for (Step step : path.subList(1, path.size())) {
+            if (!isAccessible(context, step.property.element())) {
+                String message = String.format("Property \"%s\" of %s is not accessible from %s",
+                        step.property.humanName(), step.property.element().getEnclosingElement(),
+                        context.autoValueClass().getSimpleName());
+                messager.printMessage(Kind.ERROR, message, method);
+                return false;
+            }
+        }
+        for (Step step : path.subList(0, path.size() - 1)) {
+            if (step.property.nullable()) {
+                String message = String.format("Property \"%s\" on the path of %s is @Nullable",
+                        step.property.humanName(), method.getSimpleName());
+                messager.printMessage(Kind.ERROR, message, method);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the properties whose capitalized names make up {@code name} followed by the
+     * capitalized {@code leafName}. Every property but the last has to be an AutoValue class with
+     * an accessible with-er for the next property.
+     */
+    private static List<Step> resolve(Context context, TypeMirror type,
+            Map<String, ExecutableElement> properties, String name, String leafName) {
+        for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
+            String propertyName = entry.getKey();
+            String capitalized = capitalize(propertyName);
+            if (!name.startsWith(capitalized) || name.length() == capitalized.length()) {
+                continue;
+            }
+            TypeMirror propertyType = returnType(context, type, entry.getValue());
+            TypeElement nestedClass = autoValueClass(propertyType);
+            if (nestedClass == null) {
+                continue;
+            }
+            Map<String, ExecutableElement> nestedProperties =
+                    nestedProperties(context, nestedClass);
+            String remaining = name.substring(capitalized.length());
+
+            List<Step> path = null;
+            if (remaining.equals(capitalize(leafName))) {
+                ExecutableElement leaf = nestedProperties.get(leafName);
+                if (leaf != null) {
+                    path = new ArrayList<>(2);
+                    TypeName leafType = TypeName.get(returnType(context, propertyType, leaf));
+                    path.add(new Step(new Property(leafName, leaf), leafType, null));
+                }
+            } else {
+                path = resolve(context, propertyType, nestedProperties, remaining, leafName);
+            }
+            if (path == null) {
+                continue;
+            }
+            Step next = path.get(0);
+            TypeMirror nextType = returnType(context, propertyType, next.property.element());
+            String nextWithMethod = withMethod(
+                    context, propertyType, nestedClass, next.property.humanName(), nextType);
+            if (nextWithMethod != null) {
+                path.set(0, new Step(next.property, next.type, nextWithMethod));
+                Property property = new Property(propertyName, entry.getValue());
+                path.add(0, new Step(property, TypeName.get(propertyType), null));
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private static TypeElement autoValueClass(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = MoreElements.asType(MoreTypes.asDeclared(type).asElement());
+        return MoreElements.isAnnotationPresent(element, AutoValue.class) ? element : null;
+    }
+
+    /**
+     * Returns the properties of an AutoValue class that isn't the one currently processed, which
+     * are its abstract methods without parameters. Prefixed getters are also registered under
+     * their unprefixed name.
+     */
+    private static Map<String, ExecutableElement> nestedProperties(
+            Context context, TypeElement autoValueClass) {
+        Elements elements = context.processingEnvironment().getElementUtils();
+        Map<String, ExecutableElement> properties = new LinkedHashMap<>();
+        for (ExecutableElement method :
+                ElementFilter.methodsIn(elements.getAllMembers(autoValueClass))) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)
+                    || !method.getParameters().isEmpty()
+                    || method.getReturnType().getKind() == TypeKind.VOID) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            properties.put(name, method);
+            if (name.startsWith("get") && name.length() > 3) {
+                properties.put(decapitalize(name.substring(3)), method);
+            } else if (name.startsWith("is") && name.length() > 2) {
+                properties.put(decapitalize(name.substring(2)), method);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the name of the with-er of {@code autoValueClass} that takes a single
+     * {@code propertyType} parameter named {@code propertyName} or {@code null} if there is none
+     * that is accessible from the processed class.
+     */
+    private static String withMethod(Context context, TypeMirror type, TypeElement autoValueClass,
+            String propertyName, TypeMirror propertyType) {
+        Elements elements = context.processingEnvironment().getElementUtils();
+        Types types = context.processingEnvironment().getTypeUtils();
+        String name = WithMethod.PREFIX + capitalize(propertyName);
+        for (ExecutableElement method :
+                ElementFilter.methodsIn(elements.getAllMembers(autoValueClass))) {
+            if (!method.getSimpleName().contentEquals(name)
+                    || method.getParameters().size() != 1
+                    || !isAccessible(context, method)) {
+                continue;
+            }
+            ExecutableType methodType = (ExecutableType)
+                    types.asMemberOf(MoreTypes.asDeclared(type), method);
+            if (types.isSameType(methodType.getParameterTypes().get(0), propertyType)
+                    && types.isAssignable(methodType.getReturnType(), type)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the generated class can call {@code method} of another class, which requires
+     * it to be public or in the same package.
+     */
+    private static boolean isAccessible(Context context, ExecutableElement method) {
+        Elements elements = context.processingEnvironment().getElementUtils();
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        return modifiers.contains(Modifier.PUBLIC) || elements.getPackageOf(method).equals(
+                elements.getPackageOf(context.autoValueClass()));
+    }
+
+    private static TypeMirror returnType(
+            Context context, TypeMirror type, ExecutableElement method) {
+        Types types = context.processingEnvironment().getTypeUtils();
+        return ((ExecutableType) types.asMemberOf(MoreTypes.asDeclared(type), method))
+                .getReturnType();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String decapitalize(String name) {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+}
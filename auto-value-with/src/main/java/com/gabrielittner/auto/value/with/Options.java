@@ -0,0 +1,138 @@
+package com.gabrielittner.auto.value.with;
+
+import com.google.auto.common.AnnotationMirrors;
+import com.google.auto.common.MoreElements;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import java.util.Map;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+
+final class Options {
+
+    static final String SKIP_UNCHANGED = "autovaluewith.skipUnchanged";
+    static final String TIMING = "autovaluewith.timing";
+    static final String CACHE_HASH_CODE = "autovaluewith.cacheHashCode";
+    static final String DIAGNOSTICS = "autovaluewith.diagnostics";
+    static final String MAX_PROPERTIES = "autovaluewith.maxProperties";
+
+    static final ImmutableSet<String> SUPPORTED = ImmutableSet.of(
+            SKIP_UNCHANGED, TIMING, CACHE_HASH_CODE, DIAGNOSTICS, MAX_PROPERTIES);
+
+    private static final int DEFAULT_MAX_PROPERTIES = 32;
+
+    enum Comparison {
+        NONE,
+        REFERENCE,
+        EQUALS,
+    }
+
+    final Comparison skipUnchanged;
+    final boolean cacheHashCode;
+    /** The maximum size of the interner or {@code null} if with-er results aren't interned. */
+    final Integer internedMaximumSize;
+    final boolean diagnostics;
+    /** Classes with more properties are reported when diagnostics are enabled. */
+    final int maxProperties;
+
+    private Options(Comparison skipUnchanged, boolean cacheHashCode, Integer internedMaximumSize,
+            boolean diagnostics, int maxProperties) {
+        this.skipUnchanged = skipUnchanged;
+        this.cacheHashCode = cacheHashCode;
+        this.internedMaximumSize = internedMaximumSize;
+        this.diagnostics = diagnostics;
+        this.maxProperties = maxProperties;
+    }
+
+    static Options get(Context context) {
+        Map<String, String> options = context.processingEnvironment().getOptions();
+        TypeElement autoValueClass = context.autoValueClass();
+        return new Options(
+                skipUnchanged(autoValueClass, options.get(SKIP_UNCHANGED)),
+                MoreElements.isAnnotationPresent(autoValueClass, CacheHashCode.class)
+                        || Boolean.parseBoolean(options.get(CACHE_HASH_CODE)),
+                internedMaximumSize(autoValueClass),
+                diagnostics(options),
+                maxProperties(options));
+    }
+
+    /**
+     * Warns about options with a value that isn't understood. They would otherwise silently fall
+     * back to their default.
+     */
+    static void check(ProcessingEnvironment processingEnvironment) {
+        Map<String, String> options = processingEnvironment.getOptions();
+        Messager messager = processingEnvironment.getMessager();
+        for (String key : ImmutableSet.of(TIMING, CACHE_HASH_CODE, DIAGNOSTICS)) {
+            String option = options.get(key);
+            if (option != null && !option.equalsIgnoreCase("true")
+                    && !option.equalsIgnoreCase("false")) {
+                warnIgnored(messager, key, option, "true or false");
+            }
+        }
+        String skipUnchanged = options.get(SKIP_UNCHANGED);
+        if (skipUnchanged != null && !skipUnchanged.equals("reference")
+                && !skipUnchanged.equals("equals")) {
+            warnIgnored(messager, SKIP_UNCHANGED, skipUnchanged, "reference or equals");
+        }
+        String maxProperties = options.get(MAX_PROPERTIES);
+        if (maxProperties != null && maxProperties(maxProperties) == null) {
+            warnIgnored(messager, MAX_PROPERTIES, maxProperties, "a number");
+        }
+    }
+
+    private static void warnIgnored(Messager messager, String key, String option, String expected) {
+        String message = String.format("Ignoring -A%s=%s, expected %s", key, option, expected);
+        messager.printMessage(Kind.WARNING, message);
+    }
+
+    static boolean diagnostics(Map<String, String> options) {
+        return Boolean.parseBoolean(options.get(DIAGNOSTICS));
+    }
+
+    private static int maxProperties(Map<String, String> options) {
+        String option = options.get(MAX_PROPERTIES);
+        Integer maxProperties = option != null ? maxProperties(option) : null;
+        return maxProperties != null ? maxProperties : DEFAULT_MAX_PROPERTIES;
+    }
+
+    /** Returns {@code null} if {@code option} isn't a number, which is reported by check. */
+    private static Integer maxProperties(String option) {
+        try {
+            return Integer.parseInt(option);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Integer internedMaximumSize(TypeElement autoValueClass) {
+        Optional<AnnotationMirror> annotation =
+                MoreElements.getAnnotationMirror(autoValueClass, Interned.class);
+        if (!annotation.isPresent()) {
+            return null;
+        }
+        return (Integer) AnnotationMirrors.getAnnotationValue(annotation.get(), "maximumSize")
+                .getValue();
+    }
+
+    private static Comparison skipUnchanged(TypeElement autoValueClass, String option) {
+        Optional<AnnotationMirror> annotation =
+                MoreElements.getAnnotationMirror(autoValueClass, SkipUnchanged.class);
+        if (annotation.isPresent()) {
+            Object useEquals =
+                    AnnotationMirrors.getAnnotationValue(annotation.get(), "useEquals").getValue();
+            return Boolean.TRUE.equals(useEquals) ? Comparison.EQUALS : Comparison.REFERENCE;
+        }
+        if ("reference".equals(option)) {
+            return Comparison.REFERENCE;
+        }
+        if ("equals".equals(option)) {
+            return Comparison.EQUALS;
+        }
+        return Comparison.NONE;
+    }
+}
@@ -0,0 +1,100 @@
+package com.gabrielittner.auto.value.with;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.StandardLocation;
+
+/**
+ * Lists the cost of every generated with-er, the number of properties it copies from the current
+ * instance. The report is written to {@code auto-value-with-report.txt} in the source output
+ * directory once per processing round when running inside javac, otherwise the lines of each
+ * class are reported as a note.
+ */
+final class Report {
+
+    static final String FILE_NAME = "auto-value-with-report";
+
+    private static final Report DISABLED = new Report(null, null);
+
+    static Report create(ProcessingEnvironment processingEnvironment) {
+        if (!Options.diagnostics(processingEnvironment.getOptions())) {
+            return DISABLED;
+        }
+        final Report report = new Report(
+                processingEnvironment.getMessager(), processingEnvironment.getFiler());
+        report.perRound = Rounds.onRoundFinished(processingEnvironment, new Runnable() {
+            @Override
+            public void run() {
+                if (report.lines.length() > 0) {
+                    report.write();
+                }
+                report.round++;
+            }
+        });
+        return report;
+    }
+
+    private final Messager messager;
+    private final Filer filer;
+    private boolean perRound;
+    private int round = 1;
+
+    private final StringBuilder lines = new StringBuilder();
+
+    private Report(Messager messager, Filer filer) {
+        this.messager = messager;
+        this.filer = filer;
+    }
+
+    void add(TypeElement autoValueClass, int propertyCount, List<WithMethod> withMethods,
+            List<LensMethod> lensMethods, List<CollectionMethod> collectionMethods,
+            List<UpdateMethod> updateMethods) {
+        if (messager == null) {
+            return;
+        }
+        if (withMethods.isEmpty() && lensMethods.isEmpty() && collectionMethods.isEmpty()
+                && updateMethods.isEmpty()) {
+            return;
+        }
+        lines.append(autoValueClass.getQualifiedName()).append(": ")
+                .append(propertyCount).append(" properties\n");
+        for (WithMethod method : withMethods) {
+            line(method.methodName, propertyCount - method.propertyNames.size(), propertyCount);
+        }
+        for (LensMethod method : lensMethods) {
+            line(method.methodName, propertyCount - 1, propertyCount);
+        }
+        for (CollectionMethod method : collectionMethods) {
+            line(method.methodName, propertyCount - 1, propertyCount);
+        }
+        for (UpdateMethod method : updateMethods) {
+            line(method.methodName, propertyCount - 1, propertyCount);
+        }
+        if (!perRound) {
+            messager.printMessage(Kind.NOTE, lines.toString().trim(), autoValueClass);
+            lines.setLength(0);
+        }
+    }
+
+    private void line(String methodName, int copied, int propertyCount) {
+        lines.append("  ").append(methodName).append(": copies ").append(copied)
+                .append(" of ").append(propertyCount).append('\n');
+    }
+
+    private void write() {
+        String name = round == 1 ? FILE_NAME + ".txt" : FILE_NAME + "-round" + round + ".txt";
+        try (Writer writer =
+                filer.createResource(StandardLocation.SOURCE_OUTPUT, "", name).openWriter()) {
+            writer.write(lines.toString());
+        } catch (IOException e) {
+            messager.printMessage(Kind.WARNING, "Couldn't write " + name + ": " + e.getMessage());
+        }
+        lines.setLength(0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.gabrielittner.auto.value.with;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import javax.annotation.processing.ProcessingEnvironment;
+
+final class Rounds {
+
+    /**
+     * Runs {@code action} after each annotation processing round. Returns {@code false} when that
+     * isn't possible because the extension is not running in javac or the processing environment
+     * is wrapped, e.g. by Gradle.
+     */
+    static boolean onRoundFinished(ProcessingEnvironment processingEnvironment,
+            final Runnable action) {
+        JavacTask task;
+        try {
+            task = JavacTask.instance(processingEnvironment);
+        } catch (IllegalArgumentException | LinkageError e) {
+            return false;
+        }
+        task.addTaskListener(new TaskListener() {
+            @Override
+            public void started(TaskEvent e) {}
+
+            @Override
+            public void finished(TaskEvent e) {
+                if (e.getKind() == TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND) {
+                    action.run();
+                }
+            }
+        });
+        return true;
+    }
+
+    private Rounds() {}
+}
@@ -0,0 +1,79 @@
+package com.gabrielittner.auto.value.with;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Sums up the time spent analyzing AutoValue classes and generating code for them. The totals are
+ * reported once per processing round when running inside javac, otherwise they are reported for
+ * each class.
+ */
+final class Timings {
+
+    private static final Timings DISABLED = new Timings(null);
+
+    static Timings create(ProcessingEnvironment processingEnvironment) {
+        if (!Boolean.parseBoolean(processingEnvironment.getOptions().get(Options.TIMING))) {
+            return DISABLED;
+        }
+        final Timings timings = new Timings(processingEnvironment.getMessager());
+        timings.perRound = Rounds.onRoundFinished(processingEnvironment, new Runnable() {
+            @Override
+            public void run() {
+                if (timings.classes > 0) {
+                    timings.report("round " + timings.round, null);
+                }
+                timings.round++;
+            }
+        });
+        return timings;
+    }
+
+    private final Messager messager;
+    private boolean perRound;
+    private int round = 1;
+
+    private int classes;
+    private long analysisNanos;
+    private long generationNanos;
+
+    private Timings(Messager messager) {
+        this.messager = messager;
+    }
+
+    long start() {
+        return messager != null ? System.nanoTime() : 0L;
+    }
+
+    void analysis(long startNanos) {
+        if (messager != null) {
+            analysisNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    void generation(TypeElement autoValueClass, long startNanos) {
+        if (messager == null) {
+            return;
+        }
+        generationNanos += System.nanoTime() - startNanos;
+        classes++;
+        if (!perRound) {
+            report(autoValueClass.getQualifiedName().toString(), autoValueClass);
+        }
+    }
+
+    private void report(String subject, TypeElement element) {
+        String message = String.format("auto-value-with: %s, %d classes, analysis %d ms,"
+                        + " generation %d ms", subject, classes,
+                TimeUnit.NANOSECONDS.toMillis(analysisNanos),
+                TimeUnit.NANOSECONDS.toMillis(generationNanos));
+        messager.printMessage(Kind.NOTE, message, element);
+        classes = 0;
+        analysisNanos = 0L;
+        generationNanos = 0L;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.gabrielittner.auto.value.with;
+
+import com.google.auto.common.MoreElements;
+import com.google.auto.common.MoreTypes;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * A mutable companion of an AutoValue class in the style of Clojure's transients. The AutoValue
+ * class declares a nested {@code Transient} type with with-er named setters and a
+ * {@code persistent()} method, and a method without parameters that returns it:
+ * <pre>{@code
+ * abstract Transient toTransient();
+ *
+ * abstract static class Transient {
+ *   abstract Transient withCount(int count);
+ *   abstract Aggregate persistent();
+ * }
+ * }</pre>
+ * The setters update the transient in place and {@code persistent()} creates a single new
+ * instance from it, after which the transient can't be used anymore.
+ */
+final class TransientClass {
+
+    static final String NAME = "Transient";
+
+    /** The method of the AutoValue class that returns a new transient. */
+    final String methodName;
+    final Set<Modifier> methodModifiers;
+    final List<? extends AnnotationMirror> methodAnnotations;
+    /** The name of the property that is consumed because it returns the transient. */
+    final String propertyName;
+
+    final TypeElement type;
+    final List<WithMethod> setters;
+    final ExecutableElement persistentMethod;
+
+    private TransientClass(String propertyName, ExecutableElement method, TypeElement type,
+            List<WithMethod> setters, ExecutableElement persistentMethod) {
+        this.methodName = method.getSimpleName().toString();
+        this.methodModifiers = method.getModifiers();
+        this.methodAnnotations = method.getAnnotationMirrors();
+        this.propertyName = propertyName;
+        this.type = type;
+        this.setters = setters;
+        this.persistentMethod = persistentMethod;
+    }
+
+    /**
+     * Returns the transient of the AutoValue class or {@code null} if it doesn't declare a
+     * property returning its nested {@code Transient} type. A nested type of that name that isn't
+     * an abstract class or interface with a {@code persistent()} method is an ordinary property.
+     */
+    static TransientClass get(Context context) {
+        TypeElement autoValueClass = context.autoValueClass();
+        Map<String, ExecutableElement> properties = context.properties();
+        for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
+            TypeMirror returnType = entry.getValue().getReturnType();
+            if (returnType.getKind() != TypeKind.DECLARED) {
+                continue;
+            }
+            TypeElement type = MoreElements.asType(MoreTypes.asDeclared(returnType).asElement());
+            if (type.getSimpleName().contentEquals(NAME)
+                    && type.getEnclosingElement().equals(autoValueClass)
+                    && isTransient(context, type)) {
+                return create(context, entry.getKey(), entry.getValue(), type);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTransient(Context context, TypeElement type) {
+        if (type.getKind() != ElementKind.INTERFACE && (type.getKind() != ElementKind.CLASS
+                || !type.getModifiers().contains(Modifier.ABSTRACT))) {
+            return false;
+        }
+        Types types = context.processingEnvironment().getTypeUtils();
+        for (ExecutableElement member : ElementFilter.methodsIn(
+                context.processingEnvironment().getElementUtils().getAllMembers(type))) {
+            if (member.getModifiers().contains(Modifier.ABSTRACT)
+                    && member.getParameters().isEmpty()
+                    && types.isAssignable(
+                            context.autoValueClass().asType(), member.getReturnType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TransientClass create(Context context, String propertyName,
+            ExecutableElement method, TypeElement type) {
+        Messager messager = context.processingEnvironment().getMessager();
+        Types types = context.processingEnvironment().getTypeUtils();
+        TypeElement autoValueClass = context.autoValueClass();
+        if (!autoValueClass.getTypeParameters().isEmpty()) {
+            messager.printMessage(Kind.ERROR,
+                    "Transient is not supported for generic classes", method);
+            return null;
+        }
+        if (!type.getModifiers().contains(Modifier.STATIC)
+                && type.getKind() != ElementKind.INTERFACE) {
+            messager.printMessage(Kind.ERROR, "Transient must be static", type);
+            return null;
+        }
+        if (type.getModifiers().contains(Modifier.PRIVATE)) {
+            messager.printMessage(Kind.ERROR, "Transient must not be private", type);
+            return null;
+        }
+
+        List<WithMethod> setters = new ArrayList<>();
+        ExecutableElement persistentMethod = null;
+        for (ExecutableElement member : ElementFilter.methodsIn(
+                context.processingEnvironment().getElementUtils().getAllMembers(type))) {
+            if (!member.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            if (member.getParameters().isEmpty()
+                    && types.isAssignable(autoValueClass.asType(), member.getReturnType())) {
+                persistentMethod = member;
+            } else if (member.getSimpleName().toString().startsWith(WithMethod.PREFIX)
+                    && !member.getParameters().isEmpty()
+                    && types.isAssignable(type.asType(), member.getReturnType())) {
+                setters.add(WithMethod.create(messager, context.properties(), member));
+            } else {
+                String message = String.format("Expected a with-er returning %s or a method"
+                        + " without parameters returning %s", NAME, autoValueClass);
+                messager.printMessage(Kind.ERROR, message, member);
+            }
+        }
+        return new TransientClass(propertyName, method, type, setters, persistentMethod);
+    }
+}
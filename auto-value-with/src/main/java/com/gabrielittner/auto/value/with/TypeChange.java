@@ -0,0 +1,114 @@
+package com.gabrielittner.auto.value.with;
+
+import com.google.auto.common.MoreTypes;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * The type arguments of a generic with-er that returns the AutoValue class with different type
+ * arguments, e.g. {@code <R> Page<R> withItems(List<R> items)} for {@code Page<T>}. Properties
+ * whose types refer to a changed type variable have to be parameters of such a with-er.
+ */
+final class TypeChange {
+
+    /** The type variables declared by the with-er. */
+    final List<TypeVariableName> typeVariables;
+    final TypeName returnType;
+    /** The type argument of the returned type for every type variable of the class. */
+    private final Map<TypeVariableName, TypeName> typeArguments;
+
+    private TypeChange(List<TypeVariableName> typeVariables, TypeName returnType,
+            Map<TypeVariableName, TypeName> typeArguments) {
+        this.typeVariables = typeVariables;
+        this.returnType = returnType;
+        this.typeArguments = typeArguments;
+    }
+
+    /**
+     * Returns the type change of a with-er that declares type variables or {@code null} if its
+     * return type isn't the AutoValue class or one of its type variables shadows one of the class,
+     * which is reported. Types are substituted by name, so a shadowed type variable couldn't be
+     * told apart from the one of the class.
+     */
+    static TypeChange resolve(Context context, ExecutableElement method) {
+        TypeElement autoValueClass = context.autoValueClass();
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() != TypeKind.DECLARED
+                || !MoreTypes.asDeclared(returnType).asElement().equals(autoValueClass)
+                || MoreTypes.asDeclared(returnType).getTypeArguments().isEmpty()) {
+            String message = String.format("Expected %s as return type", autoValueClass);
+            context.processingEnvironment().getMessager().printMessage(Kind.ERROR, message, method);
+            return null;
+        }
+
+        DeclaredType declaredType = MoreTypes.asDeclared(returnType);
+        List<? extends TypeParameterElement> classVariables = autoValueClass.getTypeParameters();
+        Map<TypeVariableName, TypeName> typeArguments = new LinkedHashMap<>();
+        for (int i = 0; i < classVariables.size(); i++) {
+            String name = classVariables.get(i).getSimpleName().toString();
+            typeArguments.put(TypeVariableName.get(name),
+                    TypeName.get(declaredType.getTypeArguments().get(i)));
+        }
+        List<TypeVariableName> typeVariables = new ArrayList<>(method.getTypeParameters().size());
+        for (TypeParameterElement typeParameter : method.getTypeParameters()) {
+            TypeVariableName typeVariable = TypeVariableName.get(typeParameter);
+            if (typeArguments.containsKey(typeVariable)) {
+                String message = String.format("Type variable %s of %s shadows the type variable"
+                                + " %s of %s, use a different name", typeParameter,
+                        method.getSimpleName(), typeParameter, autoValueClass.getSimpleName());
+                context.processingEnvironment().getMessager()
+                        .printMessage(Kind.ERROR, message, typeParameter);
+                return null;
+            }
+            typeVariables.add(typeVariable);
+        }
+        return new TypeChange(typeVariables, TypeName.get(returnType), typeArguments);
+    }
+
+    /** Returns {@code type} with the type variables of the class replaced. */
+    TypeName substitute(TypeName type) {
+        if (type instanceof TypeVariableName) {
+            TypeName typeArgument = typeArguments.get(type);
+            return typeArgument != null ? typeArgument : type;
+        }
+        if (type instanceof ArrayTypeName) {
+            return ArrayTypeName.of(substitute(((ArrayTypeName) type).componentType));
+        }
+        if (type instanceof WildcardTypeName) {
+            WildcardTypeName wildcard = (WildcardTypeName) type;
+            return wildcard.lowerBounds.isEmpty()
+                    ? WildcardTypeName.subtypeOf(substitute(wildcard.upperBounds.get(0)))
+                    : WildcardTypeName.supertypeOf(substitute(wildcard.lowerBounds.get(0)));
+        }
+        if (type instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            List<TypeName> typeArguments = new ArrayList<>(parameterized.typeArguments.size());
+            for (TypeName typeArgument : parameterized.typeArguments) {
+                typeArguments.add(substitute(typeArgument));
+            }
+            return ParameterizedTypeName.get(parameterized.rawType,
+                    typeArguments.toArray(new TypeName[0]));
+        }
+        return type;
+    }
+
+    /** Returns whether {@code type} refers to a type variable that the with-er changes. */
+    boolean changes(TypeName type) {
+        return !substitute(type).equals(type);
+    }
+}
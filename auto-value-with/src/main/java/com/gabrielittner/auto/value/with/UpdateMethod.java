@@ -0,0 +1,122 @@
+package com.gabrielittner.auto.value.with;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * A with-er that computes the new value of a property from the current one, e.g.
+ * {@code withNameUpdated(UnaryOperator<String> update)}. Properties of type {@code int},
+ * {@code long} and {@code double} are updated with {@code IntUnaryOperator},
+ * {@code LongUnaryOperator} and {@code DoubleUnaryOperator} to avoid boxing.
+ */
+final class UpdateMethod {
+
+    static final String SUFFIX = "Updated";
+
+    private static final String FUNCTION_PACKAGE = "java.util.function";
+
+    final String methodName;
+    final Set<Modifier> methodModifiers;
+    final List<? extends AnnotationMirror> methodAnnotations;
+
+    final Property property;
+    final String parameterName;
+    final TypeName parameterType;
+    /** The method of the functional interface that computes the new value. */
+    final String applyMethodName;
+
+    private UpdateMethod(ExecutableElement method, Property property, TypeName parameterType,
+            String applyMethodName) {
+        this.methodName = method.getSimpleName().toString();
+        this.methodModifiers = method.getModifiers();
+        this.methodAnnotations = method.getAnnotationMirrors();
+        this.property = property;
+        this.parameterName = method.getParameters().get(0).getSimpleName().toString();
+        this.parameterType = parameterType;
+        this.applyMethodName = applyMethodName;
+    }
+
+    /**
+     * Returns whether {@code method} updates a property with a function. A parameter named like
+     * a property makes it a regular with-er, e.g. {@code withCountUpdated(long countUpdated)}.
+     */
+    static boolean isCandidate(ExecutableElement method, Map<String, ExecutableElement> properties) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        return parameters.size() == 1
+                && !properties.containsKey(parameters.get(0).getSimpleName().toString())
+                && properties.containsKey(propertyName(method));
+    }
+
+    static List<UpdateMethod> getUpdateMethods(
+            Context context, Set<ExecutableElement> methods) {
+        Messager messager = context.processingEnvironment().getMessager();
+        Map<String, ExecutableElement> properties = context.properties();
+
+        List<UpdateMethod> updateMethods = new ArrayList<>(methods.size());
+        for (ExecutableElement method : methods) {
+            if (!WithMethod.hasValidReturnType(context, method)) {
+                continue;
+            }
+
+            String propertyName = propertyName(method);
+            Property property = new Property(propertyName, properties.get(propertyName));
+            TypeName propertyType = property.type();
+            TypeName expectedType;
+            String applyMethodName;
+            if (propertyType.equals(TypeName.INT)) {
+                expectedType = ClassName.get(FUNCTION_PACKAGE, "IntUnaryOperator");
+                applyMethodName = "applyAsInt";
+            } else if (propertyType.equals(TypeName.LONG)) {
+                expectedType = ClassName.get(FUNCTION_PACKAGE, "LongUnaryOperator");
+                applyMethodName = "applyAsLong";
+            } else if (propertyType.equals(TypeName.DOUBLE)) {
+                expectedType = ClassName.get(FUNCTION_PACKAGE, "DoubleUnaryOperator");
+                applyMethodName = "applyAsDouble";
+            } else if (propertyType.isPrimitive()) {
+                String message = String.format(
+                        "Property \"%s\" of type %s can't be updated with a function",
+                        propertyName, propertyType);
+                messager.printMessage(Kind.ERROR, message, method);
+                continue;
+            } else {
+                expectedType = ParameterizedTypeName.get(
+                        ClassName.get(FUNCTION_PACKAGE, "UnaryOperator"), propertyType);
+                applyMethodName = "apply";
+            }
+
+            VariableElement parameter = method.getParameters().get(0);
+            if (!TypeName.get(parameter.asType()).equals(expectedType)) {
+                String message = String.format("Expected type %s for %s",
+                        expectedType, parameter.getSimpleName());
+                messager.printMessage(Kind.ERROR, message, parameter);
+                continue;
+            }
+            updateMethods.add(new UpdateMethod(method, property, expectedType, applyMethodName));
+        }
+        return updateMethods;
+    }
+
+    private static String propertyName(ExecutableElement method) {
+        String name = method.getSimpleName().toString();
+        if (name.length() <= WithMethod.PREFIX.length() + SUFFIX.length()
+                || !name.startsWith(WithMethod.PREFIX) || !name.endsWith(SUFFIX)) {
+            return "";
+        }
+        String capitalized =
+                name.substring(WithMethod.PREFIX.length(), name.length() - SUFFIX.length());
+        return Character.toLowerCase(capitalized.charAt(0)) + capitalized.substring(1);
+    }
+}
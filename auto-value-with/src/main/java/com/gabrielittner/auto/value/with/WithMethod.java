@@ -10,6 +10,8 @@ import java.util.Map;
 import java.util.Set;
 import javax.annotation.processing.Messager;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
@@ -22,7 +24,7 @@ import static com.gabrielittner.auto.value.util.ElementUtil.getResolvedReturnTyp
 
 class WithMethod {
 
-    private static final String PREFIX = "with";
+    static final String PREFIX = "with";
 
     final String methodName;
     final Set<Modifier> methodModifiers;
@@ -30,66 +32,174 @@ class WithMethod {
 
     final List<Property> properties;
     final List<String> propertyNames;
+    /**
+     * The parameter types, either the type of the property or a primitive type that is
+     * converted to it, see {@link Boxing}.
+     */
+    final List<TypeName> parameterTypes;
+    /** The changed type arguments or {@code null} if the with-er keeps those of the class. */
+    final TypeChange typeChange;
 
     private WithMethod(ExecutableElement method, List<Property> properties,
-            List<String> methodPropertyNames) {
+            List<String> methodPropertyNames, List<TypeName> parameterTypes,
+            TypeChange typeChange) {
         this.methodName = method.getSimpleName().toString();
         this.methodModifiers = method.getModifiers();
         this.methodAnnotations = method.getAnnotationMirrors();
         this.properties = properties;
         this.propertyNames = methodPropertyNames;
+        this.parameterTypes = parameterTypes;
+        this.typeChange = typeChange;
     }
 
-    static List<WithMethod> getWithMethods(Context context) {
-        Messager messager = context.processingEnvironment().getMessager();
-        Types typeUtils = context.processingEnvironment().getTypeUtils();
+    boolean isPrimitiveSpecialized(int index) {
+        TypeName propertyType = properties.get(index).type();
+        if (typeChange != null) {
+            propertyType = typeChange.substitute(propertyType);
+        }
+        return !parameterTypes.get(index).equals(propertyType);
+    }
 
-        TypeElement autoValueClass = context.autoValueClass();
+    static List<WithMethod> getWithMethods(
+            Context context, ImmutableSet<ExecutableElement> methods, Options options) {
+        Messager messager = context.processingEnvironment().getMessager();
         Map<String, ExecutableElement> properties = context.properties();
+        if (options.diagnostics && !methods.isEmpty()
+                && properties.size() > options.maxProperties) {
+            String message = String.format("%s has %d properties, every with-er call copies all"
+                            + " of them (more than %s=%d)", context.autoValueClass(),
+                    properties.size(), Options.MAX_PROPERTIES, options.maxProperties);
+            messager.printMessage(Kind.WARNING, message, context.autoValueClass());
+        }
 
-        ImmutableSet<ExecutableElement> methods = filteredAbstractMethods(context);
         List<WithMethod> withMethods = new ArrayList<>(methods.size());
         for (ExecutableElement method : methods) {
-            TypeMirror returnType = getResolvedReturnType(typeUtils, autoValueClass, method);
-            if (!typeUtils.isAssignable(autoValueClass.asType(), returnType)) {
-                String message = String.format("Expected %s as return type", autoValueClass);
-                messager.printMessage(Kind.ERROR, message, method);
-                continue;
-            }
-
-            List<? extends VariableElement> parameters = method.getParameters();
-            List<Property> methodProperties = new ArrayList<>(parameters.size());
-            List<String> methodPropertyNames = new ArrayList<>(parameters.size());
-            for (VariableElement parameter : parameters) {
-                String propertyName = parameter.getSimpleName().toString();
-                ExecutableElement propertyMethod = properties.get(propertyName);
-                if (propertyMethod == null) {
-                    String message = String.format("Property \"%s\" not found", propertyName);
-                    messager.printMessage(Kind.ERROR, message, parameter);
+            TypeChange typeChange = null;
+            if (method.getTypeParameters().isEmpty()) {
+                if (!hasValidReturnType(context, method)) {
                     continue;
                 }
-                Property property = new Property(propertyName, propertyMethod);
-                if (!TypeName.get(parameter.asType()).equals(property.type())) {
-                    String message =
-                            String.format("Expected type %s for %s", property.type(), propertyName);
-                    messager.printMessage(Kind.ERROR, message, parameter);
+            } else {
+                typeChange = TypeChange.resolve(context, method);
+                if (typeChange == null) {
                     continue;
                 }
-                methodProperties.add(property);
-                methodPropertyNames.add(propertyName);
             }
-
-            withMethods.add(new WithMethod(method, methodProperties, methodPropertyNames));
+            if (options.diagnostics) {
+                warnIfInherited(context, method);
+            }
+            WithMethod withMethod = create(messager, properties, method, typeChange);
+            if (typeChange == null
+                    || keepsUnchangedTypes(messager, properties, withMethod, method)) {
+                withMethods.add(withMethod);
+            }
         }
         return withMethods;
     }
 
+    static WithMethod create(Messager messager, Map<String, ExecutableElement> properties,
+            ExecutableElement method) {
+        return create(messager, properties, method, null);
+    }
+
+    /**
+     * Matches the parameters of {@code method} to {@code properties}, parameters that don't
+     * match are reported and left out.
+     */
+    private static WithMethod create(Messager messager, Map<String, ExecutableElement> properties,
+            ExecutableElement method, TypeChange typeChange) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        List<Property> methodProperties = new ArrayList<>(parameters.size());
+        List<String> methodPropertyNames = new ArrayList<>(parameters.size());
+        List<TypeName> parameterTypes = new ArrayList<>(parameters.size());
+        for (VariableElement parameter : parameters) {
+            String propertyName = parameter.getSimpleName().toString();
+            ExecutableElement propertyMethod = properties.get(propertyName);
+            if (propertyMethod == null) {
+                String message = String.format("Property \"%s\" not found", propertyName);
+                messager.printMessage(Kind.ERROR, message, parameter);
+                continue;
+            }
+            Property property = new Property(propertyName, propertyMethod);
+            TypeName parameterType = TypeName.get(parameter.asType());
+            TypeName propertyType = typeChange != null
+                    ? typeChange.substitute(property.type())
+                    : property.type();
+            if (!parameterType.equals(propertyType)
+                    && !parameterType.equals(Boxing.primitiveType(propertyType))) {
+                String message =
+                        String.format("Expected type %s for %s", propertyType, propertyName);
+                messager.printMessage(Kind.ERROR, message, parameter);
+                continue;
+            }
+            methodProperties.add(property);
+            methodPropertyNames.add(propertyName);
+            parameterTypes.add(parameterType);
+        }
+        return new WithMethod(
+                method, methodProperties, methodPropertyNames, parameterTypes, typeChange);
+    }
+
+    /**
+     * Reports properties that aren't parameters of a type changing with-er although their type
+     * refers to a changed type variable, their current values can't be passed on.
+     */
+    private static boolean keepsUnchangedTypes(Messager messager,
+            Map<String, ExecutableElement> properties, WithMethod withMethod,
+            ExecutableElement method) {
+        boolean valid = true;
+        for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
+            if (withMethod.propertyNames.contains(entry.getKey())) {
+                continue;
+            }
+            TypeName type = new Property(entry.getKey(), entry.getValue()).type();
+            if (withMethod.typeChange.changes(type)) {
+                String message = String.format("Property \"%s\" of type %s has to be a"
+                                + " parameter of %s", entry.getKey(), type, withMethod.methodName);
+                messager.printMessage(Kind.ERROR, message, method);
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Warns about with-ers declared in an interface or superclass. Call sites using that type
+     * can see several implementations, in which case the JIT can't inline the with-er and has to
+     * allocate the copy even if it doesn't escape.
+     */
+    private static void warnIfInherited(Context context, ExecutableElement method) {
+        Element declaringType = method.getEnclosingElement();
+        if (declaringType.equals(context.autoValueClass())) {
+            return;
+        }
+        String message = String.format("%s is declared in %s %s, calls through it may not be"
+                        + " inlined", method.getSimpleName(),
+                declaringType.getKind() == ElementKind.INTERFACE ? "interface" : "superclass",
+                declaringType);
+        context.processingEnvironment().getMessager()
+                .printMessage(Kind.WARNING, message, context.autoValueClass());
+    }
+
+    static boolean hasValidReturnType(Context context, ExecutableElement method) {
+        Types typeUtils = context.processingEnvironment().getTypeUtils();
+        TypeElement autoValueClass = context.autoValueClass();
+        TypeMirror returnType = getResolvedReturnType(typeUtils, autoValueClass, method);
+        if (!typeUtils.isAssignable(autoValueClass.asType(), returnType)) {
+            String message = String.format("Expected %s as return type", autoValueClass);
+            context.processingEnvironment().getMessager().printMessage(Kind.ERROR, message, method);
+            return false;
+        }
+        return true;
+    }
+
     static ImmutableSet<ExecutableElement> filteredAbstractMethods(Context context) {
         Set<ExecutableElement> abstractMethods = context.abstractMethods();
         ImmutableSet.Builder<ExecutableElement> withMethods = ImmutableSet.builder();
         for (ExecutableElement method : abstractMethods) {
-            if (method.getSimpleName().toString().startsWith(PREFIX)
-                    && method.getParameters().size() > 0) {
+            if ((method.getSimpleName().toString().startsWith(PREFIX)
+                    && method.getParameters().size() > 0)
+                    || DeltaMethod.isCandidate(method)) {
                 withMethods.add(method);
             }
         }
@@ -2,12 +2,34 @@ package com.gabrielittner.auto.value.with;
 
 import com.google.auto.value.processor.AutoValueProcessor;
 import com.google.testing.compile.JavaFileObjects;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 import org.junit.Test;
 
 import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
 
 public final class AutoValueWithExtensionTest {
@@ -123,6 +145,89 @@ public final class AutoValueWithExtensionTest {
                 .generatesSources(expectedSource);
     }
 
+    @Test
+    public void genericTypeChange() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<K, V> {\n"
+                + "  public abstract K key();\n"
+                + "  public abstract List<V> values();\n"
+                + "  public abstract int count();\n"
+                + "  abstract <R> Test<K, R> withValues(List<R> values);\n"
+                + "  abstract <R extends Comparable<R>> Test<R, V> withKey(R key);\n"
+                + "  abstract Test<K, V> withCount(int count);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Comparable;\n"
+                + "import java.lang.Override;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test<K, V> extends $AutoValue_Test<K, V> {\n"
+                + "  AutoValue_Test(K key, List<V> values, int count) {\n"
+                + "    super(key, values, count);\n"
+                + "  }\n"
+                + "  @Override final <R> Test<K, R> withValues(List<R> values) {\n"
+                + "    return new AutoValue_Test<>(key(), values, count());\n"
+                + "  }\n"
+                + "  @Override final <R extends Comparable<R>> Test<R, V> withKey(R key) {\n"
+                + "    return new AutoValue_Test<>(key, values(), count());\n"
+                + "  }\n"
+                + "  @Override final Test<K, V> withCount(int count) {\n"
+                + "    return new AutoValue_Test<>(key(), values(), count);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void genericTypeChangeMissingProperty() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T first();\n"
+                + "  public abstract List<T> items();\n"
+                + "  abstract <R> Test<R> withItems(List<R> items);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining(
+                        "Property \"first\" of type T has to be a parameter of withItems");
+    }
+
+    @Test
+    public void genericTypeChangeShadowed() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T first();\n"
+                + "  public abstract List<T> items();\n"
+                + "  abstract <T> Test<T> withItems(List<T> items);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Type variable T of withItems shadows the type variable T"
+                        + " of Test, use a different name");
+    }
+
     @Test
     public void returnsSuperType() {
         JavaFileObject source1 = JavaFileObjects.forSourceString("test.AbstractTest", ""
@@ -202,80 +307,384 @@ public final class AutoValueWithExtensionTest {
     }
 
     @Test
-    public void wrongParameterName() {
+    public void primitiveSpecialized() {
         JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
                 + "package test;\n"
                 + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.Optional;\n"
+                + "import java.util.OptionalDouble;\n"
+                + "import java.util.OptionalInt;\n"
+                + "import javax.annotation.Nullable;\n"
                 + "@AutoValue public abstract class Test {\n"
+                + "  public abstract Integer count();\n"
+                + "  @Nullable public abstract Long total();\n"
+                + "  public abstract OptionalInt limit();\n"
+                + "  public abstract OptionalDouble ratio();\n"
+                + "  public abstract Optional<Long> timeout();\n"
+                + "  abstract Test withCount(int count);\n"
+                + "  abstract Test withCount(Integer count);\n"
+                + "  abstract Test withTotal(long total);\n"
+                + "  abstract Test withLimit(int limit);\n"
+                + "  abstract Test withRatio(double ratio);\n"
+                + "  abstract Test withTimeout(long timeout);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.Override;\n"
+                + "import java.util.Optional;\n"
+                + "import java.util.OptionalDouble;\n"
+                + "import java.util.OptionalInt;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(Integer count, Long total, OptionalInt limit,"
+                + " OptionalDouble ratio, Optional<Long> timeout) {\n"
+                + "    super(count, total, limit, ratio, timeout);\n"
+                + "  }\n"
+                + "  @Override final Test withCount(int count) {\n"
+                + "    if (count == count()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(Integer.valueOf(count), total(), limit(),"
+                + " ratio(), timeout());\n"
+                + "  }\n"
+                + "  @Override final Test withCount(Integer count) {\n"
+                + "    return new AutoValue_Test(count, total(), limit(), ratio(), timeout());\n"
+                + "  }\n"
+                + "  @Override final Test withTotal(long total) {\n"
+                + "    if (total() != null && total == total()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(count(), Long.valueOf(total), limit(),"
+                + " ratio(), timeout());\n"
+                + "  }\n"
+                + "  @Override final Test withLimit(int limit) {\n"
+                + "    if (limit().isPresent() && limit == limit().getAsInt()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(count(), total(), OptionalInt.of(limit),"
+                + " ratio(), timeout());\n"
+                + "  }\n"
+                + "  @Override final Test withRatio(double ratio) {\n"
+                + "    if (ratio().isPresent() && Double.doubleToLongBits(ratio)"
+                + " == Double.doubleToLongBits(ratio().getAsDouble())) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(count(), total(), limit(),"
+                + " OptionalDouble.of(ratio), timeout());\n"
+                + "  }\n"
+                + "  @Override final Test withTimeout(long timeout) {\n"
+                + "    if (timeout().isPresent() && timeout == timeout().get()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(count(), total(), limit(), ratio(),"
+                + " Optional.of(Long.valueOf(timeout)));\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void skipUnchanged() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.SkipUnchanged;\n"
+                + "@SkipUnchanged @AutoValue public abstract class Test {\n"
                 + "  public abstract String a();\n"
-                + "  abstract Test withA(String b);\n"
+                + "  public abstract int b();\n"
+                + "  public abstract double c();\n"
+                + "  abstract Test withA(String a);\n"
+                + "  abstract Test withC(double c);\n"
+                + "  abstract Test withAB(String a, int b);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String a, int b, double c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  @Override final Test withA(String a) {\n"
+                + "    if (a == a()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a, b(), c());\n"
+                + "  }\n"
+                + "  @Override final Test withC(double c) {\n"
+                + "    if (Double.doubleToLongBits(c) == Double.doubleToLongBits(c())) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a(), b(), c);\n"
+                + "  }\n"
+                + "  @Override final Test withAB(String a, int b) {\n"
+                + "    if (a == a() && b == b()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a, b, c());\n"
+                + "  }\n"
                 + "}\n");
 
         assertAbout(javaSources())
                 .that(Collections.singletonList(source))
                 .processedWith(new AutoValueProcessor())
-                .failsToCompile()
-                .withErrorContaining("Property \"b\" not found");
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
     }
 
     @Test
-    public void wrongParameterType() {
+    public void skipUnchangedEqualsOption() {
         JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
                 + "package test;\n"
                 + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
                 + "@AutoValue public abstract class Test {\n"
                 + "  public abstract String a();\n"
-                + "  abstract Test withA(int a);\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  @SuppressWarnings(\"mutable\") public abstract int[] c();\n"
+                + "  abstract Test withA(String a);\n"
+                + "  abstract Test withB(@Nullable String b);\n"
+                + "  abstract Test withC(int[] c);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Arrays;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String a, String b, int[] c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  @Override final Test withA(String a) {\n"
+                + "    if (a().equals(a)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a, b(), c());\n"
+                + "  }\n"
+                + "  @Override final Test withB(String b) {\n"
+                + "    if ((b == null ? b() == null : b.equals(b()))) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a(), b, c());\n"
+                + "  }\n"
+                + "  @Override final Test withC(int[] c) {\n"
+                + "    if (Arrays.equals(c, c())) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a(), b(), c);\n"
+                + "  }\n"
                 + "}\n");
 
         assertAbout(javaSources())
                 .that(Collections.singletonList(source))
+                .withCompilerOptions("-Aautovaluewith.skipUnchanged=equals")
                 .processedWith(new AutoValueProcessor())
-                .failsToCompile()
-                .withErrorContaining("Expected type java.lang.String for a");
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
     }
 
     @Test
-    public void wrongReturnType() {
+    public void cacheHashCode() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.CacheHashCode;\n"
+                + "@CacheHashCode @AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String a);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private transient int cachedHashCode;\n"
+                + "  AutoValue_Test(String a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override final Test withA(String a) {\n"
+                + "    return new AutoValue_Test(a);\n"
+                + "  }\n"
+                + "  @Override public int hashCode() {\n"
+                + "    int h = cachedHashCode;\n"
+                + "    if (h == 0) {\n"
+                + "      h = super.hashCode();\n"
+                + "      cachedHashCode = h;\n"
+                + "    }\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void cacheHashCodeWithoutWithers() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.CacheHashCode;\n"
+                + "@CacheHashCode @AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private transient int cachedHashCode;\n"
+                + "  AutoValue_Test(String a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override public int hashCode() {\n"
+                + "    int h = cachedHashCode;\n"
+                + "    if (h == 0) {\n"
+                + "      h = super.hashCode();\n"
+                + "      cachedHashCode = h;\n"
+                + "    }\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void cacheHashCodeFinal() {
         JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
                 + "package test;\n"
                 + "import com.google.auto.value.AutoValue;\n"
                 + "@AutoValue public abstract class Test {\n"
                 + "  public abstract String a();\n"
-                + "  abstract String withA(String a);\n"
+                + "  abstract Test withA(String a);\n"
+                + "  @Override public final int hashCode() {\n"
+                + "    return a().length();\n"
+                + "  }\n"
                 + "}\n");
 
         assertAbout(javaSources())
                 .that(Collections.singletonList(source))
+                .withCompilerOptions("-Aautovaluewith.cacheHashCode=true")
                 .processedWith(new AutoValueProcessor())
-                .failsToCompile()
-                .withErrorContaining("Expected test.Test as return type");
+                .compilesWithoutError()
+                .withWarningContaining("hashCode() of test.Test can't be cached because it is final");
     }
 
     @Test
-    public void prefixedMethods() {
+    public void cacheHashCodeAbstract() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.CacheHashCode;\n"
+                + "@CacheHashCode @AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String a);\n"
+                + "  @Override public abstract int hashCode();\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private transient int cachedHashCode;\n"
+                + "  AutoValue_Test(String a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override final Test withA(String a) {\n"
+                + "    return new AutoValue_Test(a);\n"
+                + "  }\n"
+                + "  @Override public int hashCode() {\n"
+                + "    int h = cachedHashCode;\n"
+                + "    if (h == 0) {\n"
+                + "      h = super.hashCode();\n"
+                + "      cachedHashCode = h;\n"
+                + "    }\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void cacheHashCodeMemoized() {
         JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
                 + "package test;\n"
                 + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.auto.value.extension.memoized.Memoized;\n"
                 + "@AutoValue public abstract class Test {\n"
-                + "  public abstract int getA();\n"
-                + "  public abstract boolean isB();\n"
-                + "  abstract Test withA(int a);\n"
-                + "  abstract Test withB(boolean b);\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String a);\n"
+                + "  @Memoized @Override public int hashCode() {\n"
+                + "    return a().length();\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .withCompilerOptions("-Aautovaluewith.cacheHashCode=true")
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .withWarningContaining(
+                        "hashCode() of test.Test can't be cached because it is @Memoized");
+    }
+
+    @Test
+    public void interned() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.Interned;\n"
+                + "@Interned(maximumSize = 64) @AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  public abstract int b();\n"
+                + "  abstract Test withA(String a);\n"
                 + "}\n");
 
         JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
                 + "package test;\n"
+                + "import com.gabrielittner.auto.value.with.WithInterner;\n"
                 + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
                 + "final class AutoValue_Test extends $AutoValue_Test {\n"
-                + "  AutoValue_Test(int a, boolean b) {\n"
+                + "  static final WithInterner<Test> INTERNER = new WithInterner<Test>(64);\n"
+                + "  AutoValue_Test(String a, int b) {\n"
                 + "    super(a, b);\n"
                 + "  }\n"
-                + "  @Override final Test withA(int a) {\n"
-                + "    return new AutoValue_Test(a, isB());\n"
-                + "  }\n"
-                + "  @Override final Test withB(boolean b) {\n"
-                + "    return new AutoValue_Test(getA(), b);\n"
+                + "  @Override final Test withA(String a) {\n"
+                + "    return INTERNER.intern(new AutoValue_Test(a, b()));\n"
                 + "  }\n"
                 + "}\n");
 
@@ -286,4 +695,911 @@ public final class AutoValueWithExtensionTest {
                 .and()
                 .generatesSources(expectedSource);
     }
+
+    @Test
+    public void internedGeneric() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.gabrielittner.auto.value.with.Interned;\n"
+                + "@Interned @AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T a();\n"
+                + "  abstract Test<T> withA(T a);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("@Interned is not supported for generic classes");
+    }
+
+    @Test
+    public void nested() {
+        JavaFileObject user = JavaFileObjects.forSourceString("test.User", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class User {\n"
+                + "  public abstract String name();\n"
+                + "  public abstract String email();\n"
+                + "  abstract User withName(String name);\n"
+                + "}\n");
+        JavaFileObject session = JavaFileObjects.forSourceString("test.Session", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Session {\n"
+                + "  public abstract User user();\n"
+                + "  public abstract String token();\n"
+                + "  abstract Session withUser(User user);\n"
+                + "  abstract Session withToken(String token);\n"
+                + "}\n");
+        JavaFileObject state = JavaFileObjects.forSourceString("test.State", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class State {\n"
+                + "  public abstract Session session();\n"
+                + "  public abstract int count();\n"
+                + "  abstract State withSessionToken(String token);\n"
+                + "  abstract State withSessionUserName(String name);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_State", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_State extends $AutoValue_State {\n"
+                + "  AutoValue_State(Session session, int count) {\n"
+                + "    super(session, count);\n"
+                + "  }\n"
+                + "  @Override final State withSessionToken(String token) {\n"
+                + "    Session session = session();\n"
+                + "    if (token == session.token()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_State(session.withToken(token), count());\n"
+                + "  }\n"
+                + "  @Override final State withSessionUserName(String name) {\n"
+                + "    Session session = session();\n"
+                + "    User user = session.user();\n"
+                + "    if (name == user.name()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_State(session.withUser(user.withName(name)), count());\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(user, session, state))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void nestedWithoutWither() {
+        JavaFileObject user = JavaFileObjects.forSourceString("test.User", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class User {\n"
+                + "  public abstract String name();\n"
+                + "}\n");
+        JavaFileObject state = JavaFileObjects.forSourceString("test.State", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class State {\n"
+                + "  public abstract User user();\n"
+                + "  abstract State withUserName(String name);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(user, state))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Property \"name\" not found");
+    }
+
+    @Test
+    public void nestedInaccessibleGetter() {
+        JavaFileObject user = JavaFileObjects.forSourceString("test.other.User", ""
+                + "package test.other;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class User {\n"
+                + "  abstract String name();\n"
+                + "  public abstract User withName(String name);\n"
+                + "}\n");
+        JavaFileObject state = JavaFileObjects.forSourceString("test.State", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import test.other.User;\n"
+                + "@AutoValue public abstract class State {\n"
+                + "  public abstract User user();\n"
+                + "  abstract State withUserName(String name);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(user, state))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining(
+                        "Property \"name\" of test.other.User is not accessible from State");
+    }
+
+    @Test
+    public void collections() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "import com.google.common.collect.ImmutableMap;\n"
+                + "import com.google.common.collect.ImmutableSet;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract ImmutableList<String> names();\n"
+                + "  public abstract ImmutableSet<String> tags();\n"
+                + "  public abstract ImmutableMap<String, Integer> scores();\n"
+                + "  abstract Test withAddedName(String name);\n"
+                + "  abstract Test withoutName(String name);\n"
+                + "  abstract Test withAddedTags(String tag);\n"
+                + "  abstract Test withoutTags(String tag);\n"
+                + "  abstract Test withPutScores(String key, Integer value);\n"
+                + "  abstract Test withoutScores(String key);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "import com.google.common.collect.ImmutableMap;\n"
+                + "import com.google.common.collect.ImmutableSet;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Map;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(ImmutableList<String> names, ImmutableSet<String> tags,"
+                + " ImmutableMap<String, Integer> scores) {\n"
+                + "    super(names, tags, scores);\n"
+                + "  }\n"
+                + "  @Override final Test withAddedName(String name) {\n"
+                + "    ImmutableList<String> names = names();\n"
+                + "    ImmutableList<String> newNames ="
+                + " ImmutableList.<String>builder().addAll(names).add(name).build();\n"
+                + "    return new AutoValue_Test(newNames, tags(), scores());\n"
+                + "  }\n"
+                + "  @Override final Test withoutName(String name) {\n"
+                + "    ImmutableList<String> names = names();\n"
+                + "    int index = names.indexOf(name);\n"
+                + "    if (index == -1) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    ImmutableList<String> newNames = ImmutableList.<String>builder()\n"
+                + "        .addAll(names.subList(0, index))\n"
+                + "        .addAll(names.subList(index + 1, names.size()))\n"
+                + "        .build();\n"
+                + "    return new AutoValue_Test(newNames, tags(), scores());\n"
+                + "  }\n"
+                + "  @Override final Test withAddedTags(String tag) {\n"
+                + "    ImmutableSet<String> tags = tags();\n"
+                + "    if (tags.contains(tag)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    ImmutableSet<String> newTags ="
+                + " ImmutableSet.<String>builder().addAll(tags).add(tag).build();\n"
+                + "    return new AutoValue_Test(names(), newTags, scores());\n"
+                + "  }\n"
+                + "  @Override final Test withoutTags(String tag) {\n"
+                + "    ImmutableSet<String> tags = tags();\n"
+                + "    if (!tags.contains(tag)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    ImmutableSet.Builder<String> builder = ImmutableSet.builder();\n"
+                + "    for (String item : tags) {\n"
+                + "      if (!item.equals(tag)) {\n"
+                + "        builder.add(item);\n"
+                + "      }\n"
+                + "    }\n"
+                + "    ImmutableSet<String> newTags = builder.build();\n"
+                + "    return new AutoValue_Test(names(), newTags, scores());\n"
+                + "  }\n"
+                + "  @Override final Test withPutScores(String key, Integer value) {\n"
+                + "    ImmutableMap<String, Integer> scores = scores();\n"
+                + "    Integer previous = scores.get(key);\n"
+                + "    if (previous != null && previous.equals(value)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();\n"
+                + "    if (previous == null) {\n"
+                + "      builder.putAll(scores).put(key, value);\n"
+                + "    } else {\n"
+                + "      for (Map.Entry<String, Integer> entry : scores.entrySet()) {\n"
+                + "        if (entry.getKey().equals(key)) {\n"
+                + "          builder.put(key, value);\n"
+                + "        } else {\n"
+                + "          builder.put(entry);\n"
+                + "        }\n"
+                + "      }\n"
+                + "    }\n"
+                + "    ImmutableMap<String, Integer> newScores = builder.build();\n"
+                + "    return new AutoValue_Test(names(), tags(), newScores);\n"
+                + "  }\n"
+                + "  @Override final Test withoutScores(String key) {\n"
+                + "    ImmutableMap<String, Integer> scores = scores();\n"
+                + "    if (!scores.containsKey(key)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();\n"
+                + "    for (Map.Entry<String, Integer> entry : scores.entrySet()) {\n"
+                + "      if (!entry.getKey().equals(key)) {\n"
+                + "        builder.put(entry);\n"
+                + "      }\n"
+                + "    }\n"
+                + "    ImmutableMap<String, Integer> newScores = builder.build();\n"
+                + "    return new AutoValue_Test(names(), tags(), newScores);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void collectionsWrongOperation() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract ImmutableList<String> names();\n"
+                + "  abstract Test withPutNames(String key, String value);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("withPut is not supported for ImmutableList");
+    }
+
+    @Test
+    public void updated() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.function.DoubleUnaryOperator;\n"
+                + "import java.util.function.IntUnaryOperator;\n"
+                + "import java.util.function.UnaryOperator;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String name();\n"
+                + "  public abstract int count();\n"
+                + "  public abstract double score();\n"
+                + "  abstract Test withNameUpdated(UnaryOperator<String> update);\n"
+                + "  abstract Test withCountUpdated(IntUnaryOperator update);\n"
+                + "  abstract Test withScoreUpdated(DoubleUnaryOperator update);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.function.DoubleUnaryOperator;\n"
+                + "import java.util.function.IntUnaryOperator;\n"
+                + "import java.util.function.UnaryOperator;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String name, int count, double score) {\n"
+                + "    super(name, count, score);\n"
+                + "  }\n"
+                + "  @Override final Test withNameUpdated(UnaryOperator<String> update) {\n"
+                + "    String name = name();\n"
+                + "    String newName = update.apply(name);\n"
+                + "    if (newName == name) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(newName, count(), score());\n"
+                + "  }\n"
+                + "  @Override final Test withCountUpdated(IntUnaryOperator update) {\n"
+                + "    int count = count();\n"
+                + "    int newCount = update.applyAsInt(count);\n"
+                + "    if (newCount == count) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(name(), newCount, score());\n"
+                + "  }\n"
+                + "  @Override final Test withScoreUpdated(DoubleUnaryOperator update) {\n"
+                + "    double score = score();\n"
+                + "    double newScore = update.applyAsDouble(score);\n"
+                + "    if (Double.doubleToLongBits(newScore) == Double.doubleToLongBits(score)) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(name(), count(), newScore);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void updatedWrongFunction() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.function.UnaryOperator;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int count();\n"
+                + "  abstract Test withCountUpdated(UnaryOperator<Integer> update);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining(
+                        "Expected type java.util.function.IntUnaryOperator for update");
+    }
+
+    @Test
+    public void transientCompanion() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String name();\n"
+                + "  public abstract Integer count();\n"
+                + "  abstract Test withName(String name);\n"
+                + "  abstract Transient toTransient();\n"
+                + "  abstract static class Transient {\n"
+                + "    abstract Transient withName(String name);\n"
+                + "    abstract Transient withCount(int count);\n"
+                + "    abstract Test persistent();\n"
+                + "  }\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalStateException;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String name, Integer count) {\n"
+                + "    super(name, count);\n"
+                + "  }\n"
+                + "  @Override final Test withName(String name) {\n"
+                + "    return new AutoValue_Test(name, count());\n"
+                + "  }\n"
+                + "  @Override final Test.Transient toTransient() {\n"
+                + "    return new TransientImpl(this);\n"
+                + "  }\n"
+                + "  private static final class TransientImpl extends Test.Transient {\n"
+                + "    private String name;\n"
+                + "    private Integer count;\n"
+                + "    private boolean persisted;\n"
+                + "    TransientImpl(Test source) {\n"
+                + "      this.name = source.name();\n"
+                + "      this.count = source.count();\n"
+                + "    }\n"
+                + "    @Override Test.Transient withName(String name) {\n"
+                + "      if (persisted) {\n"
+                + "        throw new IllegalStateException(\"persistent() was already called\");\n"
+                + "      }\n"
+                + "      this.name = name;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    @Override Test.Transient withCount(int count) {\n"
+                + "      if (persisted) {\n"
+                + "        throw new IllegalStateException(\"persistent() was already called\");\n"
+                + "      }\n"
+                + "      this.count = Integer.valueOf(count);\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    @Override Test persistent() {\n"
+                + "      if (persisted) {\n"
+                + "        throw new IllegalStateException(\"persistent() was already called\");\n"
+                + "      }\n"
+                + "      persisted = true;\n"
+                + "      return new AutoValue_Test(name, count);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void transientWithoutPersistent() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String name();\n"
+                + "  abstract Transient toTransient();\n"
+                + "  interface Transient {\n"
+                + "    Transient withName(String name);\n"
+                + "  }\n"
+                + "}\n");
+
+        // without persistent() the interface is an ordinary property
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError();
+    }
+
+    @Test
+    public void transientEnum() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String name();\n"
+                + "  public abstract Transient state();\n"
+                + "  abstract Test withState(Transient state);\n"
+                + "  enum Transient { STORED, CACHED }\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String name, Test.Transient state) {\n"
+                + "    super(name, state);\n"
+                + "  }\n"
+                + "  @Override final Test withState(Test.Transient state) {\n"
+                + "    return new AutoValue_Test(name(), state);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void deferredInWrappedEnvironment() {
+        JavaFileObject test = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract Generated generated();\n"
+                + "  abstract Test withGenerated(Generated generated);\n"
+                + "}\n");
+        JavaFileObject plain = JavaFileObjects.forSourceString("test.Plain", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Plain {\n"
+                + "  public abstract String name();\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(Generated generated) {\n"
+                + "    super(generated);\n"
+                + "  }\n"
+                + "  @Override final Test withGenerated(Generated generated) {\n"
+                + "    return new AutoValue_Test(generated);\n"
+                + "  }\n"
+                + "}\n");
+
+        // like Gradle the wrapper hides javac, so the extension can't tell when a round ends
+        AutoValueWithExtension extension = new AutoValueWithExtension();
+        assertAbout(javaSources())
+                .that(Arrays.asList(test, plain))
+                .processedWith(new GeneratingProcessor(), new WrappingProcessor(
+                        new AutoValueProcessor(Collections.singletonList(extension))))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+        assertThat(extension.analyses).isEmpty();
+    }
+
+    @Test
+    public void timing() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String a);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .withCompilerOptions("-Aautovaluewith.timing=true")
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .withNoteContaining("auto-value-with: round 1, 1 classes, analysis");
+    }
+
+    @Test
+    public void delta() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.BitSet;\n"
+                + "import java.util.List;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  public abstract double c();\n"
+                + "  public abstract List<String> d();\n"
+                + "  abstract long diff(Test other);\n"
+                + "  abstract Test applyDelta(BitSet changed, Object[] values);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.SuppressWarnings;\n"
+                + "import java.util.BitSet;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String a, String b, double c, List<String> d) {\n"
+                + "    super(a, b, c, d);\n"
+                + "  }\n"
+                + "  @Override final long diff(Test other) {\n"
+                + "    long changed = 0L;\n"
+                + "    if (!(a().equals(other.a()))) {\n"
+                + "      changed |= 1L;\n"
+                + "    }\n"
+                + "    if (!((other.b() == null ? b() == null : other.b().equals(b())))) {\n"
+                + "      changed |= 1L << 1;\n"
+                + "    }\n"
+                + "    if (!(Double.doubleToLongBits(other.c()) == Double.doubleToLongBits(c()))) {\n"
+                + "      changed |= 1L << 2;\n"
+                + "    }\n"
+                + "    if (!(d().equals(other.d()))) {\n"
+                + "      changed |= 1L << 3;\n"
+                + "    }\n"
+                + "    return changed;\n"
+                + "  }\n"
+                + "  @Override @SuppressWarnings(\"unchecked\")\n"
+                + "  final Test applyDelta(BitSet changed, Object[] values) {\n"
+                + "    int index = 0;\n"
+                + "    return new AutoValue_Test("
+                + "changed.get(0) ? (String) values[index++] : a(), "
+                + "changed.get(1) ? (String) values[index++] : b(), "
+                + "changed.get(2) ? (Double) values[index++] : c(), "
+                + "changed.get(3) ? (List<String>) values[index++] : d());\n"
+                + "  }\n"
+                + "}");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void deltaWrongSignature() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract int diff(Test other);\n"
+                + "  abstract Test applyDelta(long changed, String[] values);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Expected long or BitSet as return type")
+                .and()
+                .withErrorContaining("Expected parameters of type long or BitSet and Object[]");
+    }
+
+    @Test
+    public void deltaNamedProperties() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String diff();\n"
+                + "  public abstract long applyDelta();\n"
+                + "  abstract Test withDiff(String diff);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String diff, long applyDelta) {\n"
+                + "    super(diff, applyDelta);\n"
+                + "  }\n"
+                + "  @Override final Test withDiff(String diff) {\n"
+                + "    return new AutoValue_Test(diff, applyDelta());\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    @Test
+    public void diagnostics() {
+        JavaFileObject withA = JavaFileObjects.forSourceString("test.WithA", ""
+                + "package test;\n"
+                + "interface WithA {\n"
+                + "  Test withA(String a);\n"
+                + "}\n");
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test implements WithA {\n"
+                + "  public abstract String a();\n"
+                + "  public abstract int b();\n"
+                + "  abstract Test withB(int b);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(withA, source))
+                .withCompilerOptions("-Aautovaluewith.diagnostics=true",
+                        "-Aautovaluewith.maxProperties=1")
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .withWarningContaining("test.Test has 2 properties, every with-er call copies all"
+                        + " of them (more than autovaluewith.maxProperties=1)")
+                .and()
+                .withWarningContaining("withA is declared in interface test.WithA,"
+                        + " calls through it may not be inlined")
+                .and()
+                .and()
+                .generatesFileNamed(StandardLocation.SOURCE_OUTPUT, "",
+                        "auto-value-with-report.txt")
+                .withStringContents(StandardCharsets.UTF_8, ""
+                        + "test.Test: 2 properties\n"
+                        + "  withA: copies 1 of 2\n"
+                        + "  withB: copies 1 of 2\n");
+    }
+
+    @Test
+    public void malformedOptions() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String a);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .withCompilerOptions("-Aautovaluewith.diagnostics=yes",
+                        "-Aautovaluewith.maxProperties=many",
+                        "-Aautovaluewith.skipUnchanged=identity")
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .withWarningContaining(
+                        "Ignoring -Aautovaluewith.diagnostics=yes, expected true or false")
+                .and()
+                .withWarningContaining(
+                        "Ignoring -Aautovaluewith.maxProperties=many, expected a number")
+                .and()
+                .withWarningContaining(
+                        "Ignoring -Aautovaluewith.skipUnchanged=identity,"
+                                + " expected reference or equals");
+    }
+
+    @Test
+    public void wrongParameterName() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(String b);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Property \"b\" not found");
+    }
+
+    @Test
+    public void wrongParameterType() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract Test withA(int a);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Expected type java.lang.String for a");
+    }
+
+    @Test
+    public void wrongReturnType() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  abstract String withA(String a);\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .failsToCompile()
+                .withErrorContaining("Expected test.Test as return type");
+    }
+
+    @Test
+    public void prefixedMethods() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int getA();\n"
+                + "  public abstract boolean isB();\n"
+                + "  abstract Test withA(int a);\n"
+                + "  abstract Test withB(boolean b);\n"
+                + "}\n");
+
+        JavaFileObject expectedSource = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, boolean b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "  @Override final Test withA(int a) {\n"
+                + "    return new AutoValue_Test(a, isB());\n"
+                + "  }\n"
+                + "  @Override final Test withB(boolean b) {\n"
+                + "    return new AutoValue_Test(getA(), b);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expectedSource);
+    }
+
+    /** Generates {@code test.Generated} in the first round, which defers classes using it. */
+    private static final class GeneratingProcessor extends AbstractProcessor {
+
+        private boolean generated;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (!generated) {
+                generated = true;
+                try (Writer writer =
+                        processingEnv.getFiler().createSourceFile("test.Generated").openWriter()) {
+                    writer.write("package test;\npublic class Generated {}\n");
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Passes a wrapped processing environment to {@code delegate}. */
+    private static final class WrappingProcessor implements Processor {
+
+        private final Processor delegate;
+
+        WrappingProcessor(Processor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            delegate.init(new ProcessingEnvironment() {
+                @Override
+                public Map<String, String> getOptions() {
+                    return processingEnv.getOptions();
+                }
+
+                @Override
+                public Messager getMessager() {
+                    return processingEnv.getMessager();
+                }
+
+                @Override
+                public Filer getFiler() {
+                    return processingEnv.getFiler();
+                }
+
+                @Override
+                public Elements getElementUtils() {
+                    return processingEnv.getElementUtils();
+                }
+
+                @Override
+                public Types getTypeUtils() {
+                    return processingEnv.getTypeUtils();
+                }
+
+                @Override
+                public SourceVersion getSourceVersion() {
+                    return processingEnv.getSourceVersion();
+                }
+
+                @Override
+                public Locale getLocale() {
+                    return processingEnv.getLocale();
+                }
+            });
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return delegate.process(annotations, roundEnv);
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element,
+                AnnotationMirror annotation, ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares collection with-ers to copying the collection by hand and passing it to a regular
+ * with-er. The {@code present} benchmarks add values that are already in the collection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollectionBenchmark {
+
+    @Param({"10", "100"})
+    public int size;
+
+    private TaggedValue value;
+    private String absent = "absent";
+    private String presentTag = "tag0";
+    private String presentCounter = "counter0";
+    private Integer presentCount = 0;
+
+    @Setup
+    public void setUp() {
+        value = TaggedValue.sample(size);
+    }
+
+    @Benchmark
+    public TaggedValue listAdd() {
+        return value.withAddedEvent(absent);
+    }
+
+    @Benchmark
+    public TaggedValue listAddManual() {
+        return value.withEvents(ImmutableList.<String>builder()
+                .addAll(value.events())
+                .add(absent)
+                .build());
+    }
+
+    @Benchmark
+    public TaggedValue setAddPresent() {
+        return value.withAddedTag(presentTag);
+    }
+
+    @Benchmark
+    public TaggedValue setAddPresentManual() {
+        Set<String> tags = new HashSet<>(value.tags());
+        tags.add(presentTag);
+        return value.withTags(ImmutableSet.copyOf(tags));
+    }
+
+    @Benchmark
+    public TaggedValue mapPutPresent() {
+        return value.withPutCounters(presentCounter, presentCount);
+    }
+
+    @Benchmark
+    public TaggedValue mapPutPresentManual() {
+        Map<String, Integer> counters = new HashMap<>(value.counters());
+        counters.put(presentCounter, presentCount);
+        return value.withCounters(ImmutableMap.copyOf(counters));
+    }
+}
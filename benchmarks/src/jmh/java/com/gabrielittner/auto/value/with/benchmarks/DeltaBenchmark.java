@@ -0,0 +1,80 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finds the properties that a few with-ers changed and applies them to the old value, with the
+ * generated {@code diff} and {@code applyDelta} and with reflection and with-ers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeltaBenchmark {
+
+    private Snapshot base;
+    private Snapshot updated;
+    private long changed;
+    private Object[] values;
+    private Method[] properties;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        base = Snapshot.sample();
+        updated = base.withVersion(2L).withStatus("failed").withRetries(1);
+        changed = base.diff(updated);
+        values = new Object[] {2L, "failed", 1};
+        List<Method> methods = new ArrayList<>();
+        for (String name : new String[] {"id", "version", "owner", "status", "retries",
+                "updatedAt", "region", "archived"}) {
+            Method method = Snapshot.class.getDeclaredMethod(name);
+            method.setAccessible(true);
+            methods.add(method);
+        }
+        properties = methods.toArray(new Method[0]);
+    }
+
+    @Benchmark
+    public long generatedDiff() {
+        return base.diff(updated);
+    }
+
+    @Benchmark
+    public long reflectiveDiff() throws ReflectiveOperationException {
+        long changed = 0L;
+        for (int i = 0; i < properties.length; i++) {
+            if (!Objects.equals(properties[i].invoke(base), properties[i].invoke(updated))) {
+                changed |= 1L << i;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public Snapshot generatedApplyDelta() {
+        return base.applyDelta(changed, values);
+    }
+
+    @Benchmark
+    public Snapshot witherApplyDelta() {
+        return base.withVersion((Long) values[0])
+                .withStatus((String) values[1])
+                .withRetries((Integer) values[2]);
+    }
+}
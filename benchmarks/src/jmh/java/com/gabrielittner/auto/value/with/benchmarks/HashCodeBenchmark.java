@@ -0,0 +1,56 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up values in a {@link HashMap} by keys with and without a cached hash code.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashCodeBenchmark {
+
+    private final Map<Key, Object> keys = new HashMap<>();
+    private final Map<CachedKey, Object> cachedKeys = new HashMap<>();
+    private Key key;
+    private CachedKey cachedKey;
+
+    @Setup
+    public void setUp() {
+        List<String> scopes = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            scopes.add("scope" + i);
+        }
+        key = Key.sample(scopes);
+        cachedKey = CachedKey.sample(scopes);
+        keys.put(key, key);
+        cachedKeys.put(cachedKey, cachedKey);
+    }
+
+    @Benchmark
+    public Object lookup() {
+        return keys.get(key);
+    }
+
+    @Benchmark
+    public Object lookupCached() {
+        return cachedKeys.get(cachedKey);
+    }
+}
@@ -0,0 +1,40 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Toggles a flag back and forth with and without interning the results. The interned results
+ * don't stay on the heap as duplicates, this measures what the lookup costs in exchange.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InternedBenchmark {
+
+    private Config config = Config.sample();
+    private InternedConfig internedConfig = InternedConfig.sample();
+
+    @Benchmark
+    public Config toggle() {
+        config = config.withEnabled(!config.enabled());
+        return config;
+    }
+
+    @Benchmark
+    public InternedConfig toggleInterned() {
+        internedConfig = internedConfig.withEnabled(!internedConfig.enabled());
+        return internedConfig;
+    }
+}
@@ -0,0 +1,45 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares updating three properties of a 20 property value through chained with-ers, a single
+ * multi-property with-er and AutoValue's {@code toBuilder()}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiPropertyBenchmark {
+
+    private final WideValue value = WideValue.sample();
+    private int a = 1;
+    private String b = "changed";
+    private int c = 3;
+
+    @Benchmark
+    public WideValue chainedWithers() {
+        return value.withA(a).withB(b).withC(c);
+    }
+
+    @Benchmark
+    public WideValue multiPropertyWither() {
+        return value.withABC(a, b, c);
+    }
+
+    @Benchmark
+    public WideValue toBuilder() {
+        return value.toBuilder().a(a).b(b).c(c).build();
+    }
+}
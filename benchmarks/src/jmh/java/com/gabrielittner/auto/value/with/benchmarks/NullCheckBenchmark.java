@@ -0,0 +1,101 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what the null checks of the AutoValue constructor cost a with-er of a class with 10
+ * non-null references, compared to a hand written copy of the class whose constructor only
+ * checks the replaced value.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NullCheckBenchmark {
+
+    private final WideValue wide = WideValue.sample();
+    private final UncheckedWideValue unchecked = UncheckedWideValue.sample();
+    private final String value = "updated";
+
+    @Benchmark
+    public WideValue checkedWither() {
+        return wide.withB(value);
+    }
+
+    @Benchmark
+    public UncheckedWideValue uncheckedWither() {
+        return unchecked.withB(value);
+    }
+
+    static final class UncheckedWideValue {
+        private final int a;
+        private final String b;
+        private final int c;
+        private final String d;
+        private final int e;
+        private final String f;
+        private final int g;
+        private final String h;
+        private final int i;
+        private final String j;
+        private final int k;
+        private final String l;
+        private final int m;
+        private final String n;
+        private final int o;
+        private final String p;
+        private final int q;
+        private final String r;
+        private final int s;
+        private final String t;
+
+        private UncheckedWideValue(int a, String b, int c, String d, int e, String f, int g,
+                String h, int i, String j, int k, String l, int m, String n, int o, String p,
+                int q, String r, int s, String t) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.e = e;
+            this.f = f;
+            this.g = g;
+            this.h = h;
+            this.i = i;
+            this.j = j;
+            this.k = k;
+            this.l = l;
+            this.m = m;
+            this.n = n;
+            this.o = o;
+            this.p = p;
+            this.q = q;
+            this.r = r;
+            this.s = s;
+            this.t = t;
+        }
+
+        static UncheckedWideValue sample() {
+            return new UncheckedWideValue(0, "b", 2, "d", 4, "f", 6, "h", 8, "j",
+                    10, "l", 12, "n", 14, "p", 16, "r", 18, "t");
+        }
+
+        UncheckedWideValue withB(String b) {
+            if (b == null) {
+                throw new NullPointerException("Null b");
+            }
+            return new UncheckedWideValue(a, b, c, d, e, f, g, h, i, j, k, l, m, n, o, p, q, r,
+                    s, t);
+        }
+    }
+}
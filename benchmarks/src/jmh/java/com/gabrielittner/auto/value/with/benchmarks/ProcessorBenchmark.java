@@ -0,0 +1,117 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.gabrielittner.auto.value.with.AutoValueWithExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs AutoValue over a synthetic project with and without the with extension to measure what
+ * the extension adds to annotation processing. Only processing is measured, generated sources are
+ * not compiled.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ProcessorBenchmark {
+
+    @Param({"1000", "10000"})
+    int classes;
+
+    @Param({"true", "false"})
+    boolean extension;
+
+    private List<JavaFileObject> sources;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sources = SyntheticSources.create(classes);
+        checkProcesses(sources, extension);
+    }
+
+    @Setup(Level.Iteration)
+    public void createOutput() throws IOException {
+        output = Files.createTempDirectory("processor-benchmark");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutput() throws IOException {
+        delete(output);
+    }
+
+    @Benchmark
+    public boolean process() {
+        return process(sources, extension, output);
+    }
+
+    /**
+     * Fails the trial if processing {@code sources} fails, e.g. because the classpath of the fork
+     * is missing an annotation, which would otherwise be timed like a successful run.
+     */
+    static void checkProcesses(List<JavaFileObject> sources, boolean extension)
+            throws IOException {
+        Path output = Files.createTempDirectory("processor-benchmark");
+        try {
+            if (!process(sources, extension, output)) {
+                throw new IllegalStateException("Processing failed, see the compiler output");
+            }
+        } finally {
+            delete(output);
+        }
+    }
+
+    static void delete(Path output) throws IOException {
+        File[] packages = output.toFile().listFiles();
+        if (packages != null) {
+            for (File directory : packages) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        Files.delete(file.toPath());
+                    }
+                }
+                Files.delete(directory.toPath());
+            }
+        }
+        Files.delete(output);
+    }
+
+    static boolean process(List<JavaFileObject> sources, boolean extension, Path output) {
+        List<AutoValueExtension> extensions = extension
+                ? Collections.<AutoValueExtension>singletonList(new AutoValueWithExtension())
+                : Collections.<AutoValueExtension>emptyList();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = Arrays.asList("-proc:only", "-s", output.toString());
+        JavaCompiler.CompilationTask task =
+                compiler.getTask(null, null, null, options, null, sources);
+        task.setProcessors(Collections.singletonList(new AutoValueProcessor(extensions)));
+        return task.call();
+    }
+}
@@ -0,0 +1,81 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Creates a project of AutoValue classes with with-ers that can be passed to javac.
+ */
+final class SyntheticSources {
+
+    static List<JavaFileObject> create(int classes) {
+        List<JavaFileObject> sources = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            sources.add(new Source("Value" + i));
+        }
+        return sources;
+    }
+
+    /**
+     * Creates classes with {@code properties} properties and a with-er for every tenth property.
+     */
+    static List<JavaFileObject> createWide(int classes, int properties) {
+        List<JavaFileObject> sources = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            String name = "Wide" + i;
+            StringBuilder content = new StringBuilder(properties * 96)
+                    .append("package synthetic;\n")
+                    .append("import com.google.auto.value.AutoValue;\n")
+                    .append("@AutoValue public abstract class ").append(name).append(" {\n");
+            for (int p = 0; p < properties; p++) {
+                String type = p % 2 == 0 ? "String" : "int";
+                content.append("  public abstract ").append(type).append(" p").append(p)
+                        .append("();\n");
+                if (p % 10 == 0) {
+                    content.append("  public abstract ").append(name).append(" withP").append(p)
+                            .append('(').append(type).append(" p").append(p).append(");\n");
+                }
+            }
+            content.append("}\n");
+            sources.add(new Source(name, content.toString()));
+        }
+        return sources;
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+
+        private final String content;
+
+        Source(String name, String content) {
+            super(URI.create("string:///synthetic/" + name + ".java"), Kind.SOURCE);
+            this.content = content;
+        }
+
+        Source(String name) {
+            this(name, ""
+                    + "package synthetic;\n"
+                    + "import com.google.auto.value.AutoValue;\n"
+                    + "import java.util.List;\n"
+                    + "@AutoValue public abstract class " + name + " {\n"
+                    + "  public abstract String id();\n"
+                    + "  public abstract String name();\n"
+                    + "  public abstract int count();\n"
+                    + "  public abstract long timestamp();\n"
+                    + "  public abstract List<String> tags();\n"
+                    + "  public abstract " + name + " withName(String name);\n"
+                    + "  public abstract " + name + " withCount(int count);\n"
+                    + "  public abstract " + name + " withNameAndTags(String name, List<String> tags);\n"
+                    + "}\n");
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+    private SyntheticSources() {}
+}
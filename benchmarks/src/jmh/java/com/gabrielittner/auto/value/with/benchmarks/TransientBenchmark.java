@@ -0,0 +1,77 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a stream of events onto an aggregate with with-ers and with a transient.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransientBenchmark {
+
+    @Param({"1000"})
+    public int events;
+
+    private long[] amounts;
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        amounts = new long[events];
+        names = new String[events];
+        for (int i = 0; i < events; i++) {
+            amounts[i] = i % 3 == 0 ? -i : i;
+            names[i] = amounts[i] < 0 ? "withdrawn" : "deposited";
+        }
+    }
+
+    @Benchmark
+    public Aggregate witherReplay() {
+        Aggregate aggregate = Aggregate.sample();
+        for (int i = 0; i < events; i++) {
+            long amount = amounts[i];
+            aggregate = aggregate.withBalance(aggregate.balance() + amount);
+            aggregate = amount < 0
+                    ? aggregate.withWithdrawals(aggregate.withdrawals() + 1)
+                    : aggregate.withDeposits(aggregate.deposits() + 1);
+            aggregate = aggregate.withLastEvent(names[i]).withVersion(aggregate.version() + 1);
+        }
+        return aggregate;
+    }
+
+    @Benchmark
+    public Aggregate transientReplay() {
+        Aggregate aggregate = Aggregate.sample();
+        Aggregate.Transient replay = aggregate.toTransient();
+        long balance = aggregate.balance();
+        int deposits = aggregate.deposits();
+        int withdrawals = aggregate.withdrawals();
+        for (int i = 0; i < events; i++) {
+            long amount = amounts[i];
+            balance += amount;
+            replay.withBalance(balance);
+            if (amount < 0) {
+                replay.withWithdrawals(++withdrawals);
+            } else {
+                replay.withDeposits(++deposits);
+            }
+            replay.withLastEvent(names[i]).withVersion(i + 1);
+        }
+        return replay.persistent();
+    }
+}
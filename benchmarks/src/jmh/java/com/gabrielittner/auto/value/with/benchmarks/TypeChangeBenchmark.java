@@ -0,0 +1,57 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Maps the items of a generic page to another type with a type changing with-er and by copying
+ * the page into a new builder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TypeChangeBenchmark {
+
+    private Page<String> page;
+    private List<Integer> lengths;
+
+    @Setup
+    public void setUp() {
+        page = Page.<String>builder()
+                .items(Arrays.asList("a", "bb", "ccc"))
+                .number(1)
+                .size(3)
+                .total(10L)
+                .build();
+        lengths = Arrays.asList(1, 2, 3);
+    }
+
+    @Benchmark
+    public Page<Integer> wither() {
+        return page.withItems(lengths);
+    }
+
+    @Benchmark
+    public Page<Integer> builder() {
+        return Page.<Integer>builder()
+                .items(lengths)
+                .number(page.number())
+                .size(page.size())
+                .total(page.total())
+                .build();
+    }
+}
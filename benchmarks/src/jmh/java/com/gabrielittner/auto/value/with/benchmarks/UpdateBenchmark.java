@@ -0,0 +1,59 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updates a property from its current value with a generated {@code with<Property>Updated} method
+ * and by reading the property and passing the result to the regular with-er. The unchanged
+ * benchmarks use a function that returns the current value.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+
+    private static final IntUnaryOperator INCREMENT = count -> count + 1;
+    private static final UnaryOperator<String> TRIM = String::trim;
+
+    private NarrowValue value;
+
+    @Setup
+    public void setUp() {
+        value = NarrowValue.sample();
+    }
+
+    @Benchmark
+    public NarrowValue increment() {
+        return value.withCountUpdated(INCREMENT);
+    }
+
+    @Benchmark
+    public NarrowValue incrementReadModifyWrite() {
+        return value.withCount(INCREMENT.applyAsInt(value.count()));
+    }
+
+    @Benchmark
+    public NarrowValue unchanged() {
+        return value.withNameUpdated(TRIM);
+    }
+
+    @Benchmark
+    public NarrowValue unchangedReadModifyWrite() {
+        return value.withName(TRIM.apply(value.name()));
+    }
+}
@@ -0,0 +1,67 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Like {@link ProcessorBenchmark} but for a few classes with hundreds of properties, where the
+ * size of the generated with-ers dominates. Run with {@code -prof gc} to see the allocated heap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class WideProcessorBenchmark {
+
+    @Param({"50"})
+    int classes;
+
+    @Param({"500"})
+    int properties;
+
+    @Param({"true", "false"})
+    boolean extension;
+
+    private List<JavaFileObject> sources;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sources = SyntheticSources.createWide(classes, properties);
+        ProcessorBenchmark.checkProcesses(sources, extension);
+    }
+
+    @Setup(Level.Iteration)
+    public void createOutput() throws IOException {
+        output = Files.createTempDirectory("processor-benchmark");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutput() throws IOException {
+        ProcessorBenchmark.delete(output);
+    }
+
+    @Benchmark
+    public boolean process() {
+        return ProcessorBenchmark.process(sources, extension, output);
+    }
+}
@@ -0,0 +1,83 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the generated with-ers for narrow and wide, primitive and boxed values with single and
+ * multiple changed properties, and primitive with-ers for boxed and optional properties.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WitherBenchmark {
+
+    private final NarrowValue narrow = NarrowValue.sample();
+    private final WideValue wide = WideValue.sample();
+    private final BoxedValue boxed = BoxedValue.sample();
+
+    private int count = 1;
+    private String name = "changed";
+    private long total = 1000L;
+
+    @Benchmark
+    public NarrowValue narrowSingle() {
+        return narrow.withCount(count);
+    }
+
+    @Benchmark
+    public NarrowValue narrowMulti() {
+        return narrow.withCountAndName(count, name);
+    }
+
+    @Benchmark
+    public WideValue wideSingle() {
+        return wide.withA(count);
+    }
+
+    @Benchmark
+    public WideValue wideMulti() {
+        return wide.withABC(count, name, count);
+    }
+
+    @Benchmark
+    public BoxedValue boxedSingle() {
+        return boxed.withCount(count);
+    }
+
+    @Benchmark
+    public BoxedValue boxedMulti() {
+        return boxed.withCountAndTotal(count, total);
+    }
+
+    @Benchmark
+    public BoxedValue boxedTotal() {
+        return boxed.withTotal(Long.valueOf(total));
+    }
+
+    @Benchmark
+    public BoxedValue primitiveTotal() {
+        return boxed.withTotal(total);
+    }
+
+    @Benchmark
+    public BoxedValue primitiveTotalUnchanged() {
+        return boxed.withTotal(0L);
+    }
+
+    @Benchmark
+    public BoxedValue primitiveOptional() {
+        return boxed.withTimeout(total);
+    }
+}
@@ -0,0 +1,35 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class Aggregate {
+
+    abstract String id();
+    abstract long version();
+    abstract long balance();
+    abstract int deposits();
+    abstract int withdrawals();
+    abstract String lastEvent();
+
+    abstract Aggregate withVersion(long version);
+    abstract Aggregate withBalance(long balance);
+    abstract Aggregate withDeposits(int deposits);
+    abstract Aggregate withWithdrawals(int withdrawals);
+    abstract Aggregate withLastEvent(String lastEvent);
+
+    abstract Transient toTransient();
+
+    abstract static class Transient {
+        abstract Transient withVersion(long version);
+        abstract Transient withBalance(long balance);
+        abstract Transient withDeposits(int deposits);
+        abstract Transient withWithdrawals(int withdrawals);
+        abstract Transient withLastEvent(String lastEvent);
+        abstract Aggregate persistent();
+    }
+
+    static Aggregate sample() {
+        return new AutoValue_Aggregate("id", 0L, 0L, 0, 0, "created");
+    }
+}
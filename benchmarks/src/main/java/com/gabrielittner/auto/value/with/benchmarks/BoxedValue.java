@@ -0,0 +1,27 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.OptionalLong;
+
+@AutoValue
+public abstract class BoxedValue {
+
+    abstract Integer count();
+    abstract Long total();
+    abstract String name();
+    abstract OptionalLong timeout();
+
+    abstract BoxedValue withCount(Integer count);
+
+    abstract BoxedValue withCountAndTotal(Integer count, Long total);
+
+    abstract BoxedValue withTotal(Long total);
+
+    abstract BoxedValue withTotal(long total);
+
+    abstract BoxedValue withTimeout(long timeout);
+
+    static BoxedValue sample() {
+        return new AutoValue_BoxedValue(0, 0L, "name", OptionalLong.empty());
+    }
+}
@@ -0,0 +1,22 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.gabrielittner.auto.value.with.CacheHashCode;
+import com.google.auto.value.AutoValue;
+import java.util.List;
+
+@CacheHashCode
+@AutoValue
+public abstract class CachedKey {
+
+    abstract String tenant();
+    abstract String user();
+    abstract String resource();
+    abstract List<String> scopes();
+    abstract long version();
+
+    abstract CachedKey withVersion(long version);
+
+    static CachedKey sample(List<String> scopes) {
+        return new AutoValue_CachedKey("tenant", "user", "resource", scopes, 1L);
+    }
+}
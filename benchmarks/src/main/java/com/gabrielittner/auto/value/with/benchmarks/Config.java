@@ -0,0 +1,18 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.concurrent.TimeUnit;
+
+@AutoValue
+public abstract class Config {
+
+    abstract boolean enabled();
+    abstract TimeUnit unit();
+    abstract String region();
+
+    abstract Config withEnabled(boolean enabled);
+
+    static Config sample() {
+        return new AutoValue_Config(false, TimeUnit.SECONDS, "eu");
+    }
+}
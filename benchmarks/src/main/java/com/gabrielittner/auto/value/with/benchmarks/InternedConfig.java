@@ -0,0 +1,24 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.gabrielittner.auto.value.with.Interned;
+import com.google.auto.value.AutoValue;
+import java.util.concurrent.TimeUnit;
+
+@Interned
+@AutoValue
+public abstract class InternedConfig {
+
+    abstract boolean enabled();
+    abstract TimeUnit unit();
+    abstract String region();
+
+    abstract InternedConfig withEnabled(boolean enabled);
+
+    static InternedConfig sample() {
+        return new AutoValue_InternedConfig(false, TimeUnit.SECONDS, "eu");
+    }
+
+    static long hitCount() {
+        return AutoValue_InternedConfig.INTERNER.hitCount();
+    }
+}
@@ -0,0 +1,20 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+
+@AutoValue
+public abstract class Key {
+
+    abstract String tenant();
+    abstract String user();
+    abstract String resource();
+    abstract List<String> scopes();
+    abstract long version();
+
+    abstract Key withVersion(long version);
+
+    static Key sample(List<String> scopes) {
+        return new AutoValue_Key("tenant", "user", "resource", scopes, 1L);
+    }
+}
@@ -0,0 +1,26 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+@AutoValue
+public abstract class NarrowValue {
+
+    abstract int count();
+    abstract String name();
+
+    abstract NarrowValue withCount(int count);
+
+    abstract NarrowValue withName(String name);
+
+    abstract NarrowValue withCountAndName(int count, String name);
+
+    abstract NarrowValue withCountUpdated(IntUnaryOperator update);
+
+    abstract NarrowValue withNameUpdated(UnaryOperator<String> update);
+
+    static NarrowValue sample() {
+        return new AutoValue_NarrowValue(0, "name");
+    }
+}
@@ -0,0 +1,28 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+
+@AutoValue
+public abstract class Page<T> {
+
+    abstract List<T> items();
+    abstract int number();
+    abstract int size();
+    abstract long total();
+
+    abstract <R> Page<R> withItems(List<R> items);
+
+    static <T> Builder<T> builder() {
+        return new AutoValue_Page.Builder<>();
+    }
+
+    @AutoValue.Builder
+    abstract static class Builder<T> {
+        abstract Builder<T> items(List<T> items);
+        abstract Builder<T> number(int number);
+        abstract Builder<T> size(int size);
+        abstract Builder<T> total(long total);
+        abstract Page<T> build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class Snapshot {
+
+    abstract String id();
+    abstract long version();
+    abstract String owner();
+    abstract String status();
+    abstract int retries();
+    abstract long updatedAt();
+    abstract String region();
+    abstract boolean archived();
+
+    abstract Snapshot withVersion(long version);
+    abstract Snapshot withStatus(String status);
+    abstract Snapshot withRetries(int retries);
+    abstract Snapshot withUpdatedAt(long updatedAt);
+
+    abstract long diff(Snapshot other);
+    abstract Snapshot applyDelta(long changed, Object[] values);
+
+    static Snapshot sample() {
+        return new AutoValue_Snapshot("id", 1L, "owner", "running", 0, 0L, "eu", false);
+    }
+}
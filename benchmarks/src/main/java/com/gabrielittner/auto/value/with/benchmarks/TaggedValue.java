@@ -0,0 +1,35 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+@AutoValue
+public abstract class TaggedValue {
+
+    abstract String id();
+    abstract ImmutableList<String> events();
+    abstract ImmutableSet<String> tags();
+    abstract ImmutableMap<String, Integer> counters();
+
+    abstract TaggedValue withEvents(ImmutableList<String> events);
+    abstract TaggedValue withTags(ImmutableSet<String> tags);
+    abstract TaggedValue withCounters(ImmutableMap<String, Integer> counters);
+
+    abstract TaggedValue withAddedEvent(String event);
+    abstract TaggedValue withAddedTag(String tag);
+    abstract TaggedValue withPutCounters(String key, Integer value);
+
+    static TaggedValue sample(int size) {
+        ImmutableList.Builder<String> events = ImmutableList.builder();
+        ImmutableSet.Builder<String> tags = ImmutableSet.builder();
+        ImmutableMap.Builder<String, Integer> counters = ImmutableMap.builder();
+        for (int i = 0; i < size; i++) {
+            events.add("event" + i);
+            tags.add("tag" + i);
+            counters.put("counter" + i, i);
+        }
+        return new AutoValue_TaggedValue("id", events.build(), tags.build(), counters.build());
+    }
+}
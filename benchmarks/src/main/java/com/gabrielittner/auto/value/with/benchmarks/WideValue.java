@@ -0,0 +1,69 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class WideValue {
+
+    abstract int a();
+    abstract String b();
+    abstract int c();
+    abstract String d();
+    abstract int e();
+    abstract String f();
+    abstract int g();
+    abstract String h();
+    abstract int i();
+    abstract String j();
+    abstract int k();
+    abstract String l();
+    abstract int m();
+    abstract String n();
+    abstract int o();
+    abstract String p();
+    abstract int q();
+    abstract String r();
+    abstract int s();
+    abstract String t();
+
+    abstract WideValue withA(int a);
+
+    abstract WideValue withB(String b);
+
+    abstract WideValue withC(int c);
+
+    abstract WideValue withABC(int a, String b, int c);
+
+    abstract Builder toBuilder();
+
+    static WideValue sample() {
+        return new AutoValue_WideValue(0, "b", 2, "d", 4, "f", 6, "h", 8, "j",
+                10, "l", 12, "n", 14, "p", 16, "r", 18, "t");
+    }
+
+    @AutoValue.Builder
+    abstract static class Builder {
+        abstract Builder a(int a);
+        abstract Builder b(String b);
+        abstract Builder c(int c);
+        abstract Builder d(String d);
+        abstract Builder e(int e);
+        abstract Builder f(String f);
+        abstract Builder g(int g);
+        abstract Builder h(String h);
+        abstract Builder i(int i);
+        abstract Builder j(String j);
+        abstract Builder k(int k);
+        abstract Builder l(String l);
+        abstract Builder m(int m);
+        abstract Builder n(String n);
+        abstract Builder o(int o);
+        abstract Builder p(String p);
+        abstract Builder q(int q);
+        abstract Builder r(String r);
+        abstract Builder s(int s);
+        abstract Builder t(String t);
+
+        abstract WideValue build();
+    }
+}
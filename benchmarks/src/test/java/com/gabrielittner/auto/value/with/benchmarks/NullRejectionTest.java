@@ -0,0 +1,58 @@
+package com.gabrielittner.auto.value.with.benchmarks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class NullRejectionTest {
+
+    @Test
+    public void witherRejectsNull() {
+        try {
+            WideValue.sample().withB(null);
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("Null b", e.getMessage());
+        }
+    }
+
+    @Test
+    public void multiPropertyWitherRejectsNull() {
+        try {
+            WideValue.sample().withABC(1, null, 3);
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("Null b", e.getMessage());
+        }
+    }
+
+    @Test
+    public void witherKeepsOtherProperties() {
+        WideValue updated = WideValue.sample().withB("updated");
+        assertEquals("updated", updated.b());
+        assertEquals("t", updated.t());
+    }
+
+    @Test
+    public void transientRejectsNullOnPersistent() {
+        Aggregate.Transient replay = Aggregate.sample().toTransient().withLastEvent(null);
+        try {
+            replay.persistent();
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("Null lastEvent", e.getMessage());
+        }
+    }
+
+    @Test
+    public void applyDeltaRejectsNull() {
+        Snapshot snapshot = Snapshot.sample();
+        try {
+            snapshot.applyDelta(snapshot.diff(snapshot.withStatus("failed")), new Object[] {null});
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("Null status", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.gabrielittner.auto.value.with.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Builds a fixture project of several hundred AutoValue classes with with-ers and checks that
+ * Gradle's incremental compilation only recompiles the class that changed and its generated
+ * classes. The extension and AutoValue are passed to the fixture as files, so the builds don't use
+ * any repository.
+ */
+public class IncrementalCompilationTest {
+
+    private static final int CLASSES = 300;
+    private static final String CHANGED = "Value7";
+    // older than anything the builds write
+    private static final long AGED = 946684800000L;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File projectDir;
+    private File classesDir;
+
+    @Before
+    public void setUp() throws IOException {
+        projectDir = temporaryFolder.getRoot();
+        classesDir = new File(projectDir, "build/classes/java/main/fixture");
+        write("settings.gradle", "rootProject.name = 'fixture'\n");
+        write("build.gradle", ""
+                + "apply plugin: 'java'\n"
+                + "\n"
+                + "dependencies {\n"
+                + "    compileOnly files(file('compile-only.txt').readLines())\n"
+                + "    annotationProcessor files(file('annotation-processor.txt').readLines())\n"
+                + "}\n");
+        write("compile-only.txt", lines(System.getProperty("fixture.compileOnly")));
+        write("annotation-processor.txt",
+                lines(System.getProperty("fixture.annotationProcessor")));
+        for (int i = 0; i < CLASSES; i++) {
+            String name = "Value" + i;
+            write("src/main/java/fixture/" + name + ".java", source(name, ""));
+        }
+
+        BuildResult result = build("compileJava");
+        assertThat(result.task(":compileJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(classFiles()).hasSize(CLASSES * 3);
+    }
+
+    @Test
+    public void addingWithMethodRecompilesOnlyChangedClass() throws IOException {
+        assertRecompilesOnlyChangedClass(
+                "  public abstract " + CHANGED + " withId(String id);\n");
+    }
+
+    @Test
+    public void addingPropertyRecompilesOnlyChangedClass() throws IOException {
+        assertRecompilesOnlyChangedClass(""
+                + "  public abstract String description();\n"
+                + "  public abstract " + CHANGED + " withDescription(String description);\n");
+    }
+
+    private void assertRecompilesOnlyChangedClass(String members) throws IOException {
+        for (File file : classFiles()) {
+            assertThat(file.setLastModified(AGED)).isTrue();
+        }
+        write("src/main/java/fixture/" + CHANGED + ".java", source(CHANGED, members));
+
+        BuildResult result = build("compileJava", "--info");
+        assertThat(result.task(":compileJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(result.getOutput()).contains("Incremental compilation of");
+        assertThat(result.getOutput()).doesNotContain("Full recompilation is required");
+        Set<String> recompiled = new TreeSet<>();
+        for (File file : classFiles()) {
+            if (file.lastModified() != AGED) {
+                recompiled.add(file.getName());
+            }
+        }
+        assertThat(recompiled).containsExactly(CHANGED + ".class",
+                "$AutoValue_" + CHANGED + ".class", "AutoValue_" + CHANGED + ".class");
+        assertThat(classFiles()).hasSize(CLASSES * 3);
+    }
+
+    private BuildResult build(String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(projectDir)
+                .withArguments(arguments)
+                .build();
+    }
+
+    private List<File> classFiles() {
+        File[] files = classesDir.listFiles();
+        return files != null ? Arrays.asList(files) : new ArrayList<File>();
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(projectDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String lines(String path) {
+        return path.replace(File.pathSeparator, "\n") + "\n";
+    }
+
+    private static String source(String name, String additionalMembers) {
+        return ""
+                + "package fixture;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class " + name + " {\n"
+                + "  public abstract String id();\n"
+                + "  public abstract String name();\n"
+                + "  public abstract int count();\n"
+                + "  public abstract List<String> tags();\n"
+                + "  public abstract " + name + " withName(String name);\n"
+                + "  public abstract " + name + " withCount(int count);\n"
+                + additionalMembers
+                + "}\n";
+    }
+}